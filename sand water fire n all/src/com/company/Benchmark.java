@@ -0,0 +1,283 @@
+package com.company;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// a small benchmark harness for the simulation and the renderer, in the spirit of JMH:
+// every (size, scenario) pair gets reseeded before each iteration, warmed up, and then timed.
+// reports ns per tick (mean and stdev over the iterations) and how much got allocated per tick.
+//
+//   java com.company.Benchmark [--sizes 300,1024] [--scenarios SAND_COLUMN,OCEAN] [--ticks 50]
+//                              [--warmup 20] [--iterations 5] [--serial] [--bulk] [--no-leveling] [--no-heat]
+//
+// the render rows time Renderer.update() flipping between two consecutive ticks,
+// i.e. the per frame cost of draw() minus the JavaFX upload.
+//
+// the view rows do the same with a Viewport the size of the game's window (VIEW_WIDTH x VIEW_HEIGHT),
+// zoomed out to the whole board and drawing all of the screen every frame.
+//
+// the heat rows time one HeatField step with every tile worked on, settled or not: the whole board
+// at full resolution, the worst case.
+//
+// the sparse rows time Renderer.update(SparseWorld) drawing the board where it sits in a world at least
+// 4 times as wide (the bottom of it, like Headless --world), uniform regions filled in whole
+public class Benchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // the window the view rows draw, the same as Main's but without pulling JavaFX in
+    private static final int VIEW_WIDTH = 300;
+    private static final int VIEW_HEIGHT = 300;
+
+    public static void main(String[] args) {
+        int[] sizes = {300, 1024};
+        List<Scenario> scenarios = new ArrayList<>(List.of(Scenario.values()));
+        int ticks = 50;
+        int warmup = 20;
+        int iterations = 5;
+        boolean parallel = true;
+        boolean bulk = false;
+        boolean leveling = true;
+        boolean heat = true;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes":
+                    String[] parts = args[++i].split(",");
+                    sizes = new int[parts.length];
+                    for (int k = 0; k < parts.length; k++) {
+                        sizes[k] = Integer.parseInt(parts[k].trim());
+                    }
+                    break;
+                case "--scenarios":
+                    scenarios.clear();
+                    for (String name : args[++i].split(",")) {
+                        scenarios.add(Scenario.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+                    }
+                    break;
+                case "--ticks":
+                    ticks = Integer.parseInt(args[++i]);
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "--serial":
+                    parallel = false;
+                    break;
+                case "--bulk":
+                    bulk = true;
+                    break;
+                case "--no-leveling":
+                    leveling = false;
+                    break;
+                case "--no-heat":
+                    heat = false;
+                    break;
+                default:
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "%-8s %-13s %6s %14s %12s %14s%n",
+                "bench", "scenario", "size", "ns/op", "+-", "alloc B/op");
+        for (int size : sizes) {
+            for (Scenario scenario : scenarios) {
+                tick(scenario, size, parallel, bulk, leveling, heat, warmup, ticks, iterations);
+                render(scenario, size, warmup, ticks, iterations);
+                view(scenario, size, warmup, ticks, iterations);
+                sparse(scenario, size, warmup, ticks, iterations);
+                if (heat) {
+                    heat(scenario, size, parallel, warmup, ticks, iterations);
+                }
+            }
+        }
+    }
+
+    static void tick(Scenario scenario, int size, boolean parallel, boolean bulk, boolean leveling, boolean heat,
+                     int warmup, int ticks, int iterations) {
+        double[] ns = new double[iterations];
+        long allocated = 0;
+        for (int it = 0; it < iterations; it++) {
+            SimulationEngine engine = new SimulationEngine(size, size, parallel);
+            engine.bulkFall(bulk);
+            engine.heat(heat);
+            engine.leveling(leveling);
+            scenario.seed(engine, it);
+            engine.step(warmup);
+
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            engine.step(ticks);
+            ns[it] = (System.nanoTime() - start) / (double) ticks;
+            allocated += allocatedBytes() - bytes;
+        }
+        report("tick", scenario, size, ns, allocated / ((long) ticks * iterations));
+    }
+
+    static void render(Scenario scenario, int size, int warmup, int ticks, int iterations) {
+        double[] ns = new double[iterations];
+        long allocated = 0;
+        for (int it = 0; it < iterations; it++) {
+            SimulationEngine engine = new SimulationEngine(size, size, false);
+            scenario.seed(engine, it);
+            engine.step(warmup);
+            byte[] a = engine.snapshot();
+            engine.step();
+            byte[] b = engine.snapshot();
+
+            Renderer renderer = new Renderer(size, size);
+            renderer.update(a);
+            for (int i = 0; i < warmup; i++) {
+                renderer.update((i & 1) == 0 ? b : a);
+            }
+
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < ticks; i++) {
+                renderer.update((i & 1) == 0 ? b : a);
+            }
+            ns[it] = (System.nanoTime() - start) / (double) ticks;
+            allocated += allocatedBytes() - bytes;
+        }
+        report("render", scenario, size, ns, allocated / ((long) ticks * iterations));
+    }
+
+    static void view(Scenario scenario, int size, int warmup, int ticks, int iterations) {
+        double[] ns = new double[iterations];
+        long allocated = 0;
+        for (int it = 0; it < iterations; it++) {
+            SimulationEngine engine = new SimulationEngine(size, size, false);
+            scenario.seed(engine, it);
+            engine.step(warmup);
+            byte[] a = engine.snapshot();
+            engine.step();
+            byte[] b = engine.snapshot();
+            // the chunks that differ between the two, as SimulationThread would have them
+            Grid grid = engine.grid;
+            boolean[] differs = new boolean[grid.chunksX * grid.chunksY];
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] != b[i]) {
+                    differs[((i / size) >> Grid.CHUNK_SHIFT) * grid.chunksX + ((i % size) >> Grid.CHUNK_SHIFT)] = true;
+                }
+            }
+            long[] changed = new long[differs.length];
+
+            Viewport viewport = new Viewport(VIEW_WIDTH, VIEW_HEIGHT, size, size);
+            viewport.zoom(0, 0, 0);
+            long tick = 0;
+            for (int i = 0; i < warmup; i++) {
+                tick = frame(viewport, (i & 1) == 0 ? b : a, differs, changed, tick);
+            }
+
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < ticks; i++) {
+                tick = frame(viewport, (i & 1) == 0 ? b : a, differs, changed, tick);
+            }
+            ns[it] = (System.nanoTime() - start) / (double) ticks;
+            allocated += allocatedBytes() - bytes;
+        }
+        report("view", scenario, size, ns, allocated / ((long) ticks * iterations));
+    }
+
+    static void sparse(Scenario scenario, int size, int warmup, int ticks, int iterations) {
+        // a power of two, and a multiple of the leaf size
+        int worldSize = Math.max(Integer.highestOneBit(size * 4 - 1) << 1, SparseWorld.CHUNK);
+        int x0 = (worldSize - size) / 2;
+        int y0 = worldSize - size;
+        double[] ns = new double[iterations];
+        long allocated = 0;
+        for (int it = 0; it < iterations; it++) {
+            SimulationEngine board = new SimulationEngine(size, size, false);
+            scenario.seed(board, it);
+            SparseWorld world = new SparseWorld(worldSize);
+            SparseEngine engine = new SparseEngine(world, it);
+            engine.write(x0, y0, size, size, board.front());
+            engine.step(warmup);
+
+            Renderer renderer = new Renderer(size, size);
+            for (int i = 0; i < warmup; i++) {
+                renderer.update(world, x0, y0);
+            }
+
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < ticks; i++) {
+                renderer.update(world, x0, y0);
+            }
+            ns[it] = (System.nanoTime() - start) / (double) ticks;
+            allocated += allocatedBytes() - bytes;
+        }
+        report("sparse", scenario, size, ns, allocated / ((long) ticks * iterations));
+    }
+
+    private static long frame(Viewport viewport, byte[] cells, boolean[] differs, long[] changed, long tick) {
+        tick++;
+        for (int chunk = 0; chunk < changed.length; chunk++) {
+            if (differs[chunk]) {
+                changed[chunk] = tick;
+            }
+        }
+        viewport.update(cells, changed, tick);
+        viewport.pan(0, 0);
+        viewport.render();
+        return tick;
+    }
+
+    static void heat(Scenario scenario, int size, boolean parallel, int warmup, int ticks, int iterations) {
+        double[] ns = new double[iterations];
+        long allocated = 0;
+        for (int it = 0; it < iterations; it++) {
+            SimulationEngine engine = new SimulationEngine(size, size, parallel);
+            scenario.seed(engine, it);
+            engine.step(warmup);
+            HeatField heat = engine.heat;
+            for (int i = 0; i < warmup; i++) {
+                heat.wakeAll();
+                heat.step();
+            }
+
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < ticks; i++) {
+                heat.wakeAll();
+                heat.step();
+            }
+            ns[it] = (System.nanoTime() - start) / (double) ticks;
+            allocated += allocatedBytes() - bytes;
+        }
+        report("heat", scenario, size, ns, allocated / ((long) ticks * iterations));
+    }
+
+    // everything allocated by every live thread, so the ForkJoinPool workers count too
+    private static long allocatedBytes() {
+        long[] ids = THREADS.getAllThreadIds();
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(ids)) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static void report(String bench, Scenario scenario, int size, double[] ns, long bytesPerOp) {
+        double mean = 0;
+        for (double v : ns) {
+            mean += v;
+        }
+        mean /= ns.length;
+        double var = 0;
+        for (double v : ns) {
+            var += (v - mean) * (v - mean);
+        }
+        double stdev = ns.length > 1 ? Math.sqrt(var / (ns.length - 1)) : 0;
+        System.out.printf(Locale.ROOT, "%-8s %-13s %6d %14.0f %12.0f %14d%n",
+                bench, scenario, size, mean, stdev, bytesPerOp);
+    }
+}
@@ -0,0 +1,76 @@
+package com.company;
+
+import java.util.Arrays;
+
+// turns a Stroke into one column range per row: the round brush stamped at every point of the
+// line between the ends (Bresenham), merged. a stroke is a convex shape, so every row it touches
+// is a single range, and every cell under it gets painted exactly once however much the stamps overlap
+//
+// the brush itself is a precomputed span mask: row dy of a brush of radius r covers
+// columns -span..span, span = spans(r)[dy + r]
+final class Brush {
+    private static final int[][] SPANS = new int[65][];
+
+    static {
+        for (int r = 0; r < SPANS.length; r++) {
+            SPANS[r] = new int[2 * r + 1];
+            for (int dy = -r; dy <= r; dy++) {
+                // r * r + r rather than r * r, so small brushes don't come out as diamonds
+                SPANS[r][dy + r] = (int) Math.sqrt(r * r + r - dy * dy);
+            }
+        }
+    }
+
+    static int[] spans(int radius) {
+        return SPANS[Math.max(0, Math.min(radius, SPANS.length - 1))];
+    }
+
+    // after rasterize(): rows top..top + rows - 1, row top + k covers columns lo[k]..hi[k]
+    int top;
+    int rows;
+    int[] lo = new int[0];
+    int[] hi = new int[0];
+
+    void rasterize(Stroke s) {
+        int[] spans = spans(s.radius);
+        int r = spans.length >> 1;
+        top = Math.min(s.y0, s.y1) - r;
+        rows = Math.abs(s.y1 - s.y0) + 2 * r + 1;
+        if (lo.length < rows) {
+            lo = new int[rows];
+            hi = new int[rows];
+        }
+        Arrays.fill(lo, 0, rows, Integer.MAX_VALUE);
+        Arrays.fill(hi, 0, rows, Integer.MIN_VALUE);
+
+        int x = s.x0;
+        int y = s.y0;
+        int dx = Math.abs(s.x1 - x);
+        int dy = -Math.abs(s.y1 - y);
+        int sx = x < s.x1 ? 1 : -1;
+        int sy = y < s.y1 ? 1 : -1;
+        int err = dx + dy;
+        while (true) {
+            stamp(x, y - r - top, spans);
+            if (x == s.x1 && y == s.y1) {
+                break;
+            }
+            int e2 = 2 * err;
+            if (e2 >= dy) {
+                err += dy;
+                x += sx;
+            }
+            if (e2 <= dx) {
+                err += dx;
+                y += sy;
+            }
+        }
+    }
+
+    private void stamp(int x, int row, int[] spans) {
+        for (int k = 0; k < spans.length; k++, row++) {
+            lo[row] = Math.min(lo[row], x - spans[k]);
+            hi[row] = Math.max(hi[row], x + spans[k]);
+        }
+    }
+}
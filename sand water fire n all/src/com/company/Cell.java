@@ -0,0 +1,21 @@
+package com.company;
+
+// byte ids of the materials, so the hot loops can compare bytes instead of enums
+final class Cell {
+    static final byte EMPTY = Material.EMPTY.id;
+    static final byte SAND = Material.SAND.id;
+    static final byte ROCK = Material.ROCK.id;
+    static final byte WATER = Material.WATER.id;
+    static final byte WOOD = Material.WOOD.id;
+    static final byte ACID = Material.ACID.id;
+    static final byte LAVA = Material.LAVA.id;
+    static final byte STEAM = Material.STEAM.id;
+    static final byte RAIN = Material.RAIN.id;
+    static final byte SNOW = Material.SNOW.id;
+    static final byte FIRE = Material.FIRE.id;
+
+    static final int COUNT = Material.values().length;
+
+    private Cell() {
+    }
+}
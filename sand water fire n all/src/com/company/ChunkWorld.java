@@ -0,0 +1,22 @@
+package com.company;
+
+// a world SparseEngine can run the rules on, a CHUNK x CHUNK leaf at a time: a SparseWorld (a quadtree of
+// a fixed size) or a PagedWorld (chunks paged to and from disk, no edges). cells are at int (x, y),
+// leaf (cx, cy) is cells cx * CHUNK .. cx * CHUNK + CHUNK - 1 across and the same down
+interface ChunkWorld {
+    // false for leaves past the edge of the world, where the rules see a wall
+    boolean contains(int cx, int cy);
+
+    byte get(int x, int y);
+
+    void set(int x, int y, byte m);
+
+    // the cells of leaf (cx, cy), row by row, to write into directly. call written() for it before the tick is over
+    byte[] cells(int cx, int cy);
+
+    // cells of leaf (cx, cy) were written during tick, through cells() or set()
+    void written(int cx, int cy, long tick);
+
+    // copies the w x h rect with its top left corner at (x0, y0) into dst, row by row
+    void read(int x0, int y0, int w, int h, byte[] dst);
+}
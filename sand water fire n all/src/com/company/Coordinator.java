@@ -0,0 +1,192 @@
+package com.company;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+// runs one board split over several StripWorker processes, each owning a strip of whole chunk rows,
+// one strip after the other from the top. the workers swap their borders with each other directly,
+// this only hands out the strips, holds every worker at the end of each tick until all of them got
+// there, and collects the strips into whole frames
+//
+//   java com.company.Coordinator [--workers 4] [--spawn] [--port 0] [--size 1024] [--ticks 1000]
+//                                [--scenario MIXED] [--seed 1] [--frames 0] [--check]
+//
+// --spawn starts the workers as child processes on this machine (over loopback), without it the
+// coordinator waits for --workers of them to connect, from wherever: StripWorker --coordinator host:port.
+// they get their strips in the order they connected. --frames n collects a frame every n ticks, --check
+// runs the same board in this process afterwards and compares (a seeded run has to come out the same)
+public class Coordinator {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int workers = 4;
+        boolean spawn = false;
+        int port = 0;
+        int size = 1024;
+        int ticks = 1000;
+        Scenario scenario = Scenario.MIXED;
+        long seed = 1;
+        int frames = 0;
+        boolean check = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--workers":
+                    workers = Integer.parseInt(args[++i]);
+                    break;
+                case "--spawn":
+                    spawn = true;
+                    break;
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--size":
+                    size = Integer.parseInt(args[++i]);
+                    break;
+                case "--ticks":
+                    ticks = Integer.parseInt(args[++i]);
+                    break;
+                case "--scenario":
+                    scenario = Scenario.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--frames":
+                    frames = Integer.parseInt(args[++i]);
+                    break;
+                case "--check":
+                    check = true;
+                    break;
+                default:
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+        // every strip gets at least one chunk row
+        int chunkRows = (size + Grid.CHUNK - 1) >> Grid.CHUNK_SHIFT;
+        if (workers < 1 || workers > chunkRows) {
+            System.err.println("--workers has to be between 1 and " + chunkRows + " for a board of " + size);
+            System.exit(2);
+        }
+
+        Grid board = new Grid(size, size, false);
+        board.fill(Cell.EMPTY);
+        scenario.seed(board, new Random(seed));
+        byte[] start = board.cells().clone();
+
+        ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress(port));
+        List<Process> children = new ArrayList<>();
+        if (spawn) {
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            String address = "127.0.0.1:" + ((InetSocketAddress) server.getLocalAddress()).getPort();
+            for (int i = 0; i < workers; i++) {
+                children.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        StripWorker.class.getName(), "--coordinator", address).inheritIO().start());
+            }
+        } else {
+            System.out.println("waiting for " + workers + " workers on " + server.getLocalAddress());
+        }
+
+        Selector selector = Selector.open();
+        Link[] links = new Link[workers];
+        InetSocketAddress[] peers = new InetSocketAddress[workers];
+        for (int i = 0; i < workers; i++) {
+            SocketChannel channel = server.accept();
+            links[i] = new Link(channel, selector);
+            int peerPort = Link.expect(selector, links[i], StripWorker.HELLO).getInt();
+            peers[i] = new InetSocketAddress(((InetSocketAddress) channel.getRemoteAddress()).getAddress(), peerPort);
+        }
+        server.close();
+
+        // strips of whole chunk rows, as even as that goes
+        int[] rows = new int[workers + 1];
+        for (int i = 1; i <= workers; i++) {
+            rows[i] = Math.min((int) ((long) chunkRows * i / workers) << Grid.CHUNK_SHIFT, size);
+        }
+        for (int i = 0; i < workers; i++) {
+            int from = Math.max(rows[i] - 1, 0);
+            int to = Math.min(rows[i + 1] + 1, size);
+            byte[] host = i + 1 < workers ? peers[i + 1].getAddress().getHostAddress().getBytes(StandardCharsets.UTF_8) : new byte[0];
+            ByteBuffer setup = Link.message(StripWorker.SETUP, 4 * 6 + 8 * 2 + 1 + 2 + host.length + 4 + (to - from) * size);
+            setup.putInt(i).putInt(workers).putInt(size).putInt(size).putInt(rows[i]).putInt(rows[i + 1])
+                    .putLong(seed).putLong(0);
+            if (i + 1 < workers) {
+                setup.put((byte) 1).putShort((short) host.length).put(host).putInt(peers[i + 1].getPort());
+            } else {
+                setup.put((byte) 0);
+            }
+            setup.put(start, from * size, (to - from) * size);
+            links[i].send(setup);
+        }
+        expectAll(selector, links, StripWorker.READY);
+
+        byte[] frame = new byte[size * size];
+        long begin = System.nanoTime();
+        for (int t = 1; t <= ticks; t++) {
+            for (Link link : links) {
+                ByteBuffer tick = Link.message(StripWorker.TICK, 4);
+                link.send(tick.putInt(1));
+            }
+            expectAll(selector, links, StripWorker.DONE);
+            if (t == ticks || frames > 0 && t % frames == 0) {
+                for (Link link : links) {
+                    link.send(Link.message(StripWorker.FRAME, 0));
+                }
+                ByteBuffer[] strips = expectAll(selector, links, StripWorker.FRAME);
+                for (int i = 0; i < workers; i++) {
+                    strips[i].get(frame, rows[i] * size, (rows[i + 1] - rows[i]) * size);
+                }
+            }
+        }
+        long nanos = System.nanoTime() - begin;
+
+        for (Link link : links) {
+            link.send(Link.message(StripWorker.STOP, 0));
+            while (!link.flush()) {
+                selector.select();
+            }
+            link.close();
+        }
+        for (Process child : children) {
+            child.waitFor();
+        }
+
+        System.out.printf(Locale.ROOT, "%s %dx%d on %d workers, %d ticks in %.1f ms: %.1f ticks/s (board %08x)%n",
+                scenario, size, size, workers, ticks, nanos / 1e6, ticks * 1e9 / nanos, Arrays.hashCode(frame));
+
+        if (check) {
+            Simulation simulation = new Simulation(board);
+            simulation.deterministic(seed);
+            for (int t = 0; t < ticks; t++) {
+                simulation.step();
+            }
+            boolean same = Arrays.equals(frame, board.cells());
+            System.out.println(same ? "same board as one process" : "NOT the same board as one process");
+            if (!same) {
+                System.exit(1);
+            }
+        }
+    }
+
+    // a message of that type from every worker, in strip order
+    private static ByteBuffer[] expectAll(Selector selector, Link[] links, int type) throws IOException {
+        ByteBuffer[] got = Link.await(selector, links);
+        for (int i = 0; i < got.length; i++) {
+            if (got[i].getInt() != type) {
+                throw new IOException("expected message " + type + " from worker " + i);
+            }
+        }
+        return got;
+    }
+}
@@ -0,0 +1,438 @@
+package com.company;
+
+import java.util.Arrays;
+
+import static com.company.Cell.EMPTY;
+
+// levels bodies of liquid in bulk instead of letting every cell random walk sideways.
+//
+// after a tick, every connected body of a leveled material (WATER, ACID) is found with a union-find
+// over horizontal runs of it, row against row above. then per body, its highest surface cells (EMPTY above)
+// are moved into its lowest free cells (EMPTY, next to or on top of the body, with something under
+// that it wouldn't sink into), for as long as the free cell is lower. free cells on top of the body count,
+// so two arms of one body joined underneath end up level too (communicating vessels).
+// a body is done when no free cell is lower than its surface, and then nothing wakes it up again
+//
+// only bodies touching a chunk that was awake this tick are looked at, and nothing at all is done
+// while none of the awake chunks has any leveled liquid in it. runs rather than cells keep the
+// union-find small: a still lake is one run per row and chunk. the runs, and which of them are one body,
+// are kept per chunk and only found again in the chunks the grid touched, so a tick only joins the runs
+// either side of the borders between chunks
+final class FluidSolver {
+    // cells moved per body per tick, so a collapsing column pours out instead of teleporting all at once
+    static final int MAX_MOVES = 64;
+
+    private final Grid grid;
+    private final int width;
+    private final int height;
+    private final boolean[] levels;
+    private final boolean[] sinks;
+
+    // one entry per run: row, first and last column, material, union-find parent
+    private int[] runRow = new int[1024];
+    private int[] runC0 = new int[1024];
+    private int[] runC1 = new int[1024];
+    private byte[] runMaterial = new byte[1024];
+    private int[] parent = new int[1024];
+    private int runs;
+    // per chunk, and where its runs start in the arrays above this tick
+    private final Piece[] pieces;
+    private final int[] base;
+    private boolean[] awake = new boolean[1024];
+    // per body root: highest surface row and lowest free row, a body with top >= low has nothing to do
+    private int[] topSurface = new int[1024];
+    private int[] lowFree = new int[1024];
+
+    // (body root << 32 | cell index), sorted so each body's cells come together, top rows first
+    private long[] surface = new long[1024];
+    private long[] free = new long[1024];
+    private int surfaces;
+    private int frees;
+
+    // cells moved in the last solve, for Metrics
+    long moved;
+
+    FluidSolver(Grid grid, MaterialTable table, boolean[] levels) {
+        this.grid = grid;
+        this.width = grid.width;
+        this.height = grid.height;
+        this.levels = levels;
+        this.sinks = table.sinks;
+        pieces = new Piece[grid.chunksX * grid.chunksY];
+        for (int k = 0; k < pieces.length; k++) {
+            pieces[k] = new Piece();
+        }
+        base = new int[pieces.length];
+    }
+
+    // which materials get leveled by default
+    static boolean[] defaultLevels() {
+        boolean[] levels = new boolean[Cell.COUNT];
+        levels[Cell.WATER] = true;
+        levels[Cell.ACID] = true;
+        return levels;
+    }
+
+    // between ticks, on the thread that steps the grid
+    void solve() {
+        moved = 0;
+        // even on a tick with nothing to level, or a chunk would miss what changed in it
+        for (int k = 0; k < pieces.length; k++) {
+            pieces[k].stale |= grid.touched(k);
+        }
+        if (!anyAwakeLiquid()) {
+            return;
+        }
+        joinChunks();
+        collect();
+        level();
+    }
+
+    private boolean anyAwakeLiquid() {
+        byte[] cells = grid.cells();
+        int[] d = grid.dirty();
+        for (int k = 0; k < d.length; k += 4) {
+            if (d[k] > d[k + 2]) {
+                continue;
+            }
+            // the rect plus the ring around it, a body can sit right next to what woke up
+            int c0 = Math.max(d[k] - 1, 0);
+            int c1 = Math.min(d[k + 2] + 1, width - 1);
+            for (int r = Math.max(d[k + 1] - 1, 0); r <= Math.min(d[k + 3] + 1, height - 1); r++) {
+                for (int i = r * width + c0; i <= r * width + c1; i++) {
+                    if (levels[cells[i]]) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // puts the runs of every chunk one after the other and joins the chunks: within a chunk that's done
+    // already, so only the runs on either side of a chunk border are left
+    private void joinChunks() {
+        int chunksX = grid.chunksX;
+        runs = 0;
+        for (int k = 0; k < pieces.length; k++) {
+            Piece p = pieces[k];
+            if (p.stale) {
+                p.find(k);
+                p.stale = false;
+            }
+            base[k] = runs;
+            grow(runs + p.runs);
+            System.arraycopy(p.row, 0, runRow, runs, p.runs);
+            System.arraycopy(p.c0, 0, runC0, runs, p.runs);
+            System.arraycopy(p.c1, 0, runC1, runs, p.runs);
+            System.arraycopy(p.material, 0, runMaterial, runs, p.runs);
+            for (int j = 0; j < p.runs; j++) {
+                parent[runs + j] = runs + p.parent[j];
+            }
+            runs += p.runs;
+        }
+        Arrays.fill(awake, 0, runs, false);
+        Arrays.fill(topSurface, 0, runs, Integer.MAX_VALUE);
+        Arrays.fill(lowFree, 0, runs, -1);
+        for (int k = 0; k < pieces.length; k++) {
+            Piece p = pieces[k];
+            // the last run of each row against the first one of the same row in the chunk to the right
+            if (k % chunksX + 1 < chunksX) {
+                Piece right = pieces[k + 1];
+                int edge = (k % chunksX + 1) * Grid.CHUNK;
+                for (int r = 0; r < Grid.CHUNK; r++) {
+                    int a = p.rowStart[r + 1] - 1;
+                    int b = right.rowStart[r];
+                    if (a >= p.rowStart[r] && b < right.rowStart[r + 1]
+                            && p.c1[a] == edge - 1 && right.c0[b] == edge && p.material[a] == right.material[b]) {
+                        union(base[k] + a, base[k + 1] + b);
+                    }
+                }
+            }
+            // the last row against the first row of the chunk underneath
+            if (k + chunksX < pieces.length) {
+                Piece under = pieces[k + chunksX];
+                join(base[k] + p.rowStart[Grid.CHUNK - 1], base[k] + p.runs,
+                        base[k + chunksX], base[k + chunksX] + under.rowStart[1]);
+            }
+        }
+        int[] d = grid.dirty();
+        for (int k = 0; k < pieces.length; k++) {
+            int chunk = k << 2;
+            // awake, and its rect reaches a run's row, give or take the one cell ring
+            if (d[chunk] > d[chunk + 2]) {
+                continue;
+            }
+            for (int j = base[k]; j < base[k] + pieces[k].runs; j++) {
+                int r = runRow[j];
+                if (r >= d[chunk + 1] - 1 && r <= d[chunk + 3] + 1) {
+                    awake[find(j)] = true;
+                }
+            }
+        }
+    }
+
+    // runs a..aEnd of one row against b..bEnd of the row under it: the ones of the same material that overlap are one body
+    private void join(int a, int aEnd, int b, int bEnd) {
+        while (a < aEnd && b < bEnd) {
+            if (runC1[a] >= runC0[b] && runC1[b] >= runC0[a] && runMaterial[a] == runMaterial[b]) {
+                union(a, b);
+            }
+            if (runC1[a] < runC1[b]) {
+                a++;
+            } else {
+                b++;
+            }
+        }
+    }
+
+    private void grow(int n) {
+        if (n <= parent.length) {
+            return;
+        }
+        n = Math.max(n, parent.length * 2);
+        runRow = Arrays.copyOf(runRow, n);
+        runC0 = Arrays.copyOf(runC0, n);
+        runC1 = Arrays.copyOf(runC1, n);
+        runMaterial = Arrays.copyOf(runMaterial, n);
+        parent = Arrays.copyOf(parent, n);
+        awake = Arrays.copyOf(awake, n);
+        topSurface = Arrays.copyOf(topSurface, n);
+        lowFree = Arrays.copyOf(lowFree, n);
+    }
+
+    private int find(int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    private void union(int a, int b) {
+        a = find(a);
+        b = find(b);
+        if (a != b) {
+            parent[Math.max(a, b)] = Math.min(a, b);
+        }
+    }
+
+    // the surface cells and free cells of every awake body that isn't level yet. the first pass only
+    // finds each body's highest surface and lowest free row, so level bodies (most of them, and all
+    // the droplets falling through the air) never get their cells collected and sorted
+    private void collect() {
+        for (int k = 0; k < runs; k++) {
+            int root = find(k);
+            if (awake[root]) {
+                scan(k, root, false);
+            }
+        }
+        surfaces = 0;
+        frees = 0;
+        for (int k = 0; k < runs; k++) {
+            int root = find(k);
+            if (awake[root] && lowFree[root] > topSurface[root]) {
+                scan(k, root, true);
+            }
+        }
+        Arrays.sort(surface, 0, surfaces);
+        Arrays.sort(free, 0, frees);
+    }
+
+    private void scan(int k, int root, boolean add) {
+        byte[] cells = grid.cells();
+        long body = (long) root << 32;
+        int r = runRow[k];
+        int m = runMaterial[k];
+        int row = r * width;
+        for (int c = runC0[k]; c <= runC1[k]; c++) {
+            if (r > 0 && cells[row - width + c] != EMPTY) {
+                continue;
+            }
+            if (add) {
+                addSurface(body | (row + c));
+            } else {
+                topSurface[root] = Math.min(topSurface[root], r);
+            }
+            if (r > 0 && supported(r - 1, c, m)) {
+                free(body, r - 1, row - width + c, add);
+            }
+        }
+        if (runC0[k] > 0 && cells[row + runC0[k] - 1] == EMPTY && supported(r, runC0[k] - 1, m)) {
+            free(body, r, row + runC0[k] - 1, add);
+        }
+        if (runC1[k] + 1 < width && cells[row + runC1[k] + 1] == EMPTY && supported(r, runC1[k] + 1, m)) {
+            free(body, r, row + runC1[k] + 1, add);
+        }
+    }
+
+    private void free(long body, int r, int i, boolean add) {
+        if (add) {
+            addFree(body | i);
+        } else {
+            int root = (int) (body >>> 32);
+            lowFree[root] = Math.max(lowFree[root], r);
+        }
+    }
+
+    // m put at (r, c) would stay there instead of sinking
+    private boolean supported(int r, int c, int m) {
+        return r + 1 >= height || !sinks[m * MaterialTable.N + grid.get(r + 1, c)];
+    }
+
+    private void addSurface(long key) {
+        if (surfaces == surface.length) {
+            surface = Arrays.copyOf(surface, surfaces * 2);
+        }
+        surface[surfaces++] = key;
+    }
+
+    private void addFree(long key) {
+        if (frees == free.length) {
+            free = Arrays.copyOf(free, frees * 2);
+        }
+        free[frees++] = key;
+    }
+
+    // per body: highest surface cell into lowest free cell, while that's downhill
+    private void level() {
+        int s = 0;
+        int f = 0;
+        while (s < surfaces) {
+            long body = surface[s] >>> 32;
+            int sEnd = s;
+            while (sEnd < surfaces && surface[sEnd] >>> 32 == body) {
+                sEnd++;
+            }
+            while (f < frees && free[f] >>> 32 < body) {
+                f++;
+            }
+            int fEnd = f;
+            while (fEnd < frees && free[fEnd] >>> 32 == body) {
+                fEnd++;
+            }
+            int moves = 0;
+            int top = s;
+            int low = fEnd - 1;
+            while (top < sEnd && low >= f && moves < MAX_MOVES) {
+                int from = (int) surface[top];
+                int to = (int) free[low];
+                if (to / width <= from / width) {
+                    break;
+                }
+                byte m = grid.get(from);
+                // a free cell can be next to two runs, and the cell under one can have been moved away
+                if (grid.get(to) == EMPTY && levels[m] && supported(to / width, to % width, m)) {
+                    grid.set(to, m);
+                    grid.set(from, EMPTY);
+                    moves++;
+                    top++;
+                }
+                low--;
+            }
+            moved += moves;
+            s = sEnd;
+            f = fEnd;
+        }
+    }
+
+    // the runs of one chunk, cut off at its sides, in the same layout as the solver's own arrays, with a
+    // union-find over the chunk only. kept from tick to tick, and only found again after the grid touched it
+    private final class Piece {
+        int[] row = new int[16];
+        int[] c0 = new int[16];
+        int[] c1 = new int[16];
+        byte[] material = new byte[16];
+        // the first run of the body each run belongs to, within the chunk
+        int[] parent = new int[16];
+        int runs;
+        // first run of every row of the chunk, one more at the end
+        final int[] rowStart = new int[Grid.CHUNK + 1];
+        boolean stale = true;
+
+        // leveled liquids are live, so only the live bits of each row need looking at. a chunk's columns
+        // are all in one word
+        void find(int chunk) {
+            byte[] cells = grid.cells();
+            int left = (chunk % grid.chunksX) * Grid.CHUNK;
+            int right = Math.min(left + Grid.CHUNK, width) - 1;
+            int r0 = (chunk / grid.chunksX) * Grid.CHUNK;
+            int r1 = Math.min(r0 + Grid.CHUNK, height);
+            runs = 0;
+            for (int r = r0; r < r1; r++) {
+                rowStart[r - r0] = runs;
+                int first = r * width;
+                long bits = grid.liveBits(r, left >> 6, left, right);
+                while (bits != 0) {
+                    int c = ((left >> 6) << 6) + Long.numberOfTrailingZeros(bits);
+                    byte m = cells[first + c];
+                    int end = c;
+                    if (levels[m]) {
+                        while (end < right && cells[first + end + 1] == m) {
+                            end++;
+                        }
+                        add(r, c, end, m);
+                    }
+                    // past the run, without a look at each of its bits
+                    bits = end == right ? 0 : bits & -1L << (end + 1);
+                }
+            }
+            // a short last chunk row: its missing rows are empty
+            for (int r = r1 - r0; r <= Grid.CHUNK; r++) {
+                rowStart[r] = runs;
+            }
+            for (int r = 1; r < r1 - r0; r++) {
+                int a = rowStart[r - 1];
+                int b = rowStart[r];
+                int aEnd = rowStart[r];
+                int bEnd = rowStart[r + 1];
+                while (a < aEnd && b < bEnd) {
+                    if (c1[a] >= c0[b] && c1[b] >= c0[a] && material[a] == material[b]) {
+                        union(a, b);
+                    }
+                    if (c1[a] < c1[b]) {
+                        a++;
+                    } else {
+                        b++;
+                    }
+                }
+            }
+            // roots are the lowest run of their body, so in order one look up is enough
+            for (int k = 0; k < runs; k++) {
+                parent[k] = parent[parent[k]];
+            }
+        }
+        private void add(int r, int from, int to, byte m) {
+            if (runs == parent.length) {
+                int n = runs * 2;
+                row = Arrays.copyOf(row, n);
+                c0 = Arrays.copyOf(c0, n);
+                c1 = Arrays.copyOf(c1, n);
+                material = Arrays.copyOf(material, n);
+                parent = Arrays.copyOf(parent, n);
+            }
+            row[runs] = r;
+            c0[runs] = from;
+            c1[runs] = to;
+            material[runs] = m;
+            parent[runs] = runs;
+            runs++;
+        }
+
+        private int root(int x) {
+            while (parent[x] != x) {
+                parent[x] = parent[parent[x]];
+                x = parent[x];
+            }
+            return x;
+        }
+
+        private void union(int a, int b) {
+            a = root(a);
+            b = root(b);
+            if (a != b) {
+                parent[Math.max(a, b)] = Math.min(a, b);
+            }
+        }
+    }
+}
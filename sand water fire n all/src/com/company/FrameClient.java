@@ -0,0 +1,201 @@
+package com.company;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+// watches a FrameServer: keeps its own copy of the board up to date from the stream and checks it against
+// the CRC that comes with every frame. prints what it got once a second
+//
+//   java com.company.FrameClient [--seconds 10] [--slow 0] host:port
+//
+// --slow sleeps that many ms after every frame, to see the server drop frames for it instead of falling behind
+public class FrameClient {
+    private static final int CHUNK = Grid.CHUNK;
+    // per row of a MASK chunk, the changed columns
+    private final int[] columns = new int[CHUNK];
+
+    int width;
+    int height;
+    byte[] board;
+    long tick = -1;
+
+    // applies one message (positioned after its length), false if the board doesn't match the CRC after it
+    boolean apply(ByteBuffer m) throws IOException {
+        byte kind = m.get();
+        tick = m.getLong();
+        int w = m.getInt();
+        int h = m.getInt();
+        int crc = m.getInt();
+        if (kind == FrameServer.KEY && (board == null || w != width || h != height)) {
+            width = w;
+            height = h;
+            board = new byte[w * h];
+        } else if (board == null) {
+            throw new IOException("stream didn't start with a keyframe");
+        }
+        int chunksX = (width + CHUNK - 1) / CHUNK;
+        for (int n = m.getInt(); n > 0; n--) {
+            int chunk = m.getInt();
+            byte encoding = m.get();
+            int c0 = (chunk % chunksX) * CHUNK;
+            int r0 = (chunk / chunksX) * CHUNK;
+            int cols = Math.min(c0 + CHUNK, width) - c0;
+            int rows = Math.min(r0 + CHUNK, height) - r0;
+            if (encoding == FrameServer.RAW) {
+                for (int r = 0; r < rows; r++) {
+                    m.get(board, (r0 + r) * width + c0, cols);
+                }
+                continue;
+            }
+            if (encoding == FrameServer.MASK) {
+                int rowBits = m.getInt();
+                for (int r = 0; r < rows; r++) {
+                    columns[r] = (rowBits & (1 << r)) != 0 ? m.getInt() : 0;
+                }
+                int half = -1;
+                for (int r = 0; r < rows; r++) {
+                    for (int bits = columns[r]; bits != 0; bits &= bits - 1) {
+                        if (half < 0) {
+                            half = m.get() & 0xFF;
+                            board[(r0 + r) * width + c0 + Integer.numberOfTrailingZeros(bits)] = (byte) (half >> 4);
+                        } else {
+                            board[(r0 + r) * width + c0 + Integer.numberOfTrailingZeros(bits)] = (byte) (half & 0xF);
+                            half = -1;
+                        }
+                    }
+                }
+                continue;
+            }
+            // runs go on from one row of the chunk to the next
+            int r = 0;
+            int c = 0;
+            while (r < rows) {
+                byte v = m.get();
+                int run = (m.get() & 0xFF) + 1;
+                while (run > 0) {
+                    int i = (r0 + r) * width + c0 + c;
+                    int len = Math.min(run, cols - c);
+                    if (encoding == FrameServer.XOR) {
+                        if (v != 0) {
+                            for (int k = i; k < i + len; k++) {
+                                board[k] ^= v;
+                            }
+                        }
+                    } else {
+                        Arrays.fill(board, i, i + len, v);
+                    }
+                    run -= len;
+                    c += len;
+                    if (c == cols) {
+                        c = 0;
+                        r++;
+                    }
+                }
+            }
+        }
+        CRC32 sum = new CRC32();
+        sum.update(board, 0, board.length);
+        return (int) sum.getValue() == crc;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        double seconds = 10;
+        long slow = 0;
+        String address = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seconds":
+                    seconds = Double.parseDouble(args[++i]);
+                    break;
+                case "--slow":
+                    slow = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    if (args[i].startsWith("--")) {
+                        System.err.println("unknown option " + args[i]);
+                        System.exit(2);
+                    }
+                    address = args[i];
+            }
+        }
+        if (address == null) {
+            System.err.println("usage: FrameClient [--seconds 10] [--slow ms] host:port");
+            System.exit(2);
+        }
+
+        int colon = address.lastIndexOf(':');
+        FrameClient client = new FrameClient();
+        int frames = 0;
+        int keys = 0;
+        int bad = 0;
+        long bytes = 0;
+        long totalFrames = 0;
+        long totalBad = 0;
+        long totalBytes = 0;
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(
+                address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))))) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            ByteBuffer m = ByteBuffer.allocate(1 << 16);
+            long start = System.nanoTime();
+            long report = start + 1_000_000_000L;
+            while (System.nanoTime() - start < seconds * 1e9) {
+                length.clear();
+                fill(channel, length);
+                int n = length.getInt(0);
+                if (n > m.capacity()) {
+                    m = ByteBuffer.allocate(n);
+                }
+                m.clear().limit(n);
+                fill(channel, m);
+                m.flip();
+                if (m.get(0) == FrameServer.KEY) {
+                    keys++;
+                }
+                if (!client.apply(m)) {
+                    bad++;
+                }
+                frames++;
+                bytes += 4 + n;
+                long now = System.nanoTime();
+                if (now - report >= 0) {
+                    System.out.printf(Locale.ROOT, "tick %d: %d frames (%d key), %.1f KB/frame, %.1f KB/s%s%n",
+                            client.tick, frames, keys, bytes / 1024.0 / frames, bytes / 1024.0,
+                            bad > 0 ? ", " + bad + " DIDN'T MATCH" : "");
+                    totalFrames += frames;
+                    totalBad += bad;
+                    totalBytes += bytes;
+                    frames = keys = bad = 0;
+                    bytes = 0;
+                    report = now + 1_000_000_000L;
+                }
+                if (slow > 0) {
+                    Thread.sleep(slow);
+                }
+            }
+        } catch (EOFException e) {
+            System.out.println("server closed the connection");
+        }
+        totalFrames += frames;
+        totalBad += bad;
+        totalBytes += bytes;
+        System.out.printf(Locale.ROOT, "%d frames, %.1f KB/frame, %s%n", totalFrames,
+                totalBytes / 1024.0 / Math.max(totalFrames, 1), totalBad == 0 ? "all matched" : totalBad + " didn't match");
+        if (totalBad > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void fill(SocketChannel channel, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            if (channel.read(b) < 0) {
+                throw new EOFException("server closed the connection");
+            }
+        }
+    }
+}
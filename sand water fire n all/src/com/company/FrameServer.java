@@ -0,0 +1,434 @@
+package com.company;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// streams the board to remote viewers (see FrameClient) over TCP, from its own thread. whoever runs the
+// simulation offer()s frames, at most fps of them a second are taken, the rest are skipped
+//
+// every frame that goes out is compared with the one before it a chunk at a time, and only the chunks
+// that changed are encoded, once, into a message every viewer that's caught up gets a view of. a viewer
+// that's still busy with an older message gets nothing new: once it's done it gets one message with
+// every chunk that changed since the last frame it got, so a slow viewer just sees fewer frames, and
+// nothing piles up for it on the server. a viewer starts with a keyframe (every chunk), and every keyEvery
+// frames everyone gets one
+//
+// messages, big endian:
+//   int    length of the rest
+//   byte   KEY (every chunk is in it) or DELTA (only the ones that changed since the viewer's last frame)
+//   long   tick, int width, int height, int CRC32 of the whole frame
+//   int    number of chunks, then per chunk: int chunk index (cy * chunksX + cx), byte encoding, then
+//     RAW:  the chunk's cells, rows top to bottom
+//     RLE:  the same as runs of (byte material, byte length - 1), running on from one row to the next
+//     XOR:  RLE of the cells xor the same chunk in the frame before, mostly long runs of 0.
+//           only in a frame right after the one the viewer has
+//     MASK: for cells that changed all over the chunk, where runs don't get long: int with bit r set for
+//           every row r with a changed cell in it, an int per such row with bit c set for every changed
+//           column, then the new cells in that order, 4 bits each (high half of a byte first). like XOR,
+//           only right after the viewer's frame, and only while every material id fits in 4 bits
+final class FrameServer implements Closeable {
+    static final byte KEY = 0;
+    static final byte DELTA = 1;
+    static final byte RAW = 0;
+    static final byte RLE = 1;
+    static final byte XOR = 2;
+    static final byte MASK = 3;
+
+    static final int HEADER = 1 + 8 + 4 + 4 + 4 + 4;
+    private static final int CHUNK = Grid.CHUNK;
+    // kept low, so what's queued in the kernel for a slow viewer is a frame or two and not seconds of them
+    private static final int SEND_BUFFER = 256 << 10;
+
+    final int width;
+    final int height;
+    private final int chunksX;
+    private final int chunksY;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final Thread thread;
+    private final long period;
+    private final int keyEvery;
+    // only touched on the server's thread, viewerCount is for everyone else
+    private final List<Viewer> viewers = new ArrayList<>();
+    private volatile int viewerCount;
+    private volatile boolean running = true;
+
+    // offered frames, from the simulation's thread to this one
+    private final TripleBuffer<SimulationThread.Frame> offered;
+    private long nextOffer;
+
+    // what the viewers have been sent: the last frame and the one before it, and per chunk
+    // the frame number it last changed in
+    private byte[] frame;
+    private byte[] before;
+    private long frames;
+    private long tick;
+    private int crc;
+    private final long[] changedIn;
+    // the message for the last frame, against the one before (or a keyframe)
+    private ByteBuffer latest;
+    // a chunk's worth of scratch, for picking an encoding
+    private final byte[] xor = new byte[CHUNK * CHUNK];
+    // per row of the chunk, the changed columns, for MASK
+    private final int[] columns = new int[CHUNK];
+    // what viewers send is read into this and thrown away
+    private final ByteBuffer sink = ByteBuffer.allocate(256);
+
+    // sent so far, for the metrics
+    volatile long bytesSent;
+    volatile long messagesSent;
+
+    private static final class Viewer {
+        final SocketChannel channel;
+        final SelectionKey key;
+        // what's left of the message being sent, null when idle
+        ByteBuffer out;
+        // the frame number the viewer will have once out is done, -1 = nothing yet
+        long frame = -1;
+
+        Viewer(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+    }
+
+    // port 0 picks a free one, see port()
+    FrameServer(int port, int width, int height, double fps, int keyEvery) throws IOException {
+        this.width = width;
+        this.height = height;
+        chunksX = (width + CHUNK - 1) / CHUNK;
+        chunksY = (height + CHUNK - 1) / CHUNK;
+        changedIn = new long[chunksX * chunksY];
+        period = (long) (TimeUnit.SECONDS.toNanos(1) / fps);
+        this.keyEvery = keyEvery;
+        offered = new TripleBuffer<>(new SimulationThread.Frame(width * height),
+                new SimulationThread.Frame(width * height), new SimulationThread.Frame(width * height));
+        frame = new byte[width * height];
+        before = new byte[width * height];
+        selector = Selector.open();
+        server = ServerSocketChannel.open().bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        thread = new Thread(this::run, "frame server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    int port() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    int viewers() {
+        return viewerCount;
+    }
+
+    // from the simulation's thread, after a tick: takes a copy of the cells if the next frame is due,
+    // otherwise returns right away
+    void offer(byte[] cells, long tick) {
+        long now = System.nanoTime();
+        if (now - nextOffer < 0) {
+            return;
+        }
+        nextOffer = now + period;
+        SimulationThread.Frame f = offered.back();
+        System.arraycopy(cells, 0, f.cells, 0, f.cells.length);
+        f.tick = tick;
+        offered.publish();
+        selector.wakeup();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Viewer v : viewers) {
+            v.channel.close();
+        }
+        server.close();
+        selector.close();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept();
+                    } else if (key.isValid() && key.isReadable()) {
+                        read((Viewer) key.attachment());
+                    } else if (key.isValid() && key.isWritable()) {
+                        write((Viewer) key.attachment());
+                    }
+                }
+                selector.selectedKeys().clear();
+                SimulationThread.Frame f = offered.poll();
+                if (f != null) {
+                    next(f);
+                    // send() drops a viewer whose connection broke, so not over the list itself
+                    for (Viewer v : viewers.toArray(new Viewer[0])) {
+                        if (v.out == null) {
+                            send(v);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("frame server stopped: " + e);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER);
+            Viewer v = new Viewer(channel, channel.register(selector, SelectionKey.OP_READ));
+            v.key.attach(v);
+            viewers.add(v);
+            viewerCount = viewers.size();
+            if (frames > 0) {
+                send(v);
+            }
+        }
+    }
+
+    // viewers don't say anything, reading is only there to notice they left
+    private void read(Viewer v) {
+        sink.clear();
+        try {
+            if (v.channel.read(sink) < 0) {
+                drop(v);
+            }
+        } catch (IOException e) {
+            drop(v);
+        }
+    }
+
+    private void write(Viewer v) {
+        try {
+            int n = v.channel.write(v.out);
+            bytesSent += n;
+        } catch (IOException e) {
+            drop(v);
+            return;
+        }
+        if (!v.out.hasRemaining()) {
+            v.out = null;
+            v.key.interestOps(SelectionKey.OP_READ);
+            // it missed whatever came while it was busy
+            if (v.frame < frames) {
+                send(v);
+            }
+        }
+    }
+
+    private void drop(Viewer v) {
+        viewers.remove(v);
+        viewerCount = viewers.size();
+        v.key.cancel();
+        try {
+            v.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // brings an idle viewer up to the last frame: the shared message if it has the frame right before,
+    // one of its own otherwise
+    private void send(Viewer v) {
+        ByteBuffer m;
+        if (v.frame == frames - 1 || latest.get(4) == KEY) {
+            m = latest.duplicate();
+        } else {
+            m = encode(v.frame);
+        }
+        v.frame = frames;
+        v.out = m;
+        messagesSent++;
+        v.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        write(v);
+    }
+
+    // takes an offered frame as the next one and encodes it against the one before
+    private void next(SimulationThread.Frame f) {
+        byte[] t = before;
+        before = frame;
+        frame = t;
+        System.arraycopy(f.cells, 0, frame, 0, frame.length);
+        tick = f.tick;
+        frames++;
+        CRC32 sum = new CRC32();
+        sum.update(frame, 0, frame.length);
+        crc = (int) sum.getValue();
+        for (int chunk = 0; chunk < changedIn.length; chunk++) {
+            if (frames == 1 || changed(chunk)) {
+                changedIn[chunk] = frames;
+            }
+        }
+        latest = frames == 1 || keyEvery > 0 && frames % keyEvery == 0 ? encode(-1) : encode(frames - 1);
+    }
+
+    private boolean changed(int chunk) {
+        int c0 = (chunk % chunksX) * CHUNK;
+        int r0 = (chunk / chunksX) * CHUNK;
+        int c1 = Math.min(c0 + CHUNK, width);
+        int r1 = Math.min(r0 + CHUNK, height);
+        for (int r = r0; r < r1; r++) {
+            int i = r * width;
+            if (Arrays.mismatch(frame, i + c0, i + c1, before, i + c0, i + c1) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the last frame for a viewer that has frame number "has" (-1: a keyframe): every chunk that
+    // changed after that, and xor'd against the frame before if that's the one it has
+    private ByteBuffer encode(long has) {
+        int count = 0;
+        for (long in : changedIn) {
+            if (has < 0 || in > has) {
+                count++;
+            }
+        }
+        ByteBuffer m = ByteBuffer.allocate(4 + HEADER + count * (5 + CHUNK * CHUNK + 4));
+        m.putInt(0).put(has < 0 ? KEY : DELTA).putLong(tick).putInt(width).putInt(height).putInt(crc).putInt(count);
+        for (int chunk = 0; chunk < changedIn.length; chunk++) {
+            if (has < 0 || changedIn[chunk] > has) {
+                encode(chunk, has >= 0 && has == frames - 1, m);
+            }
+        }
+        m.flip();
+        m.putInt(0, m.limit() - 4);
+        return m;
+    }
+
+    // picks whichever of RAW, RLE, XOR and MASK comes out smallest (the same runs counting as in Snapshot)
+    private void encode(int chunk, boolean xorable, ByteBuffer out) {
+        int c0 = (chunk % chunksX) * CHUNK;
+        int r0 = (chunk / chunksX) * CHUNK;
+        int cols = Math.min(c0 + CHUNK, width) - c0;
+        int rows = Math.min(r0 + CHUNK, height) - r0;
+        int n = rows * cols;
+        int runs = 0;
+        int xorRuns = 0;
+        byte last = -1;
+        byte lastXor = -1;
+        int run = 0;
+        int xorRun = 0;
+        int changedRows = 0;
+        int changed = 0;
+        boolean nibbles = true;
+        for (int r = 0; r < rows; r++) {
+            int i = (r0 + r) * width + c0;
+            int changedColumns = 0;
+            for (int c = 0; c < cols; c++, i++) {
+                byte m = frame[i];
+                byte x = (byte) (m ^ before[i]);
+                xor[r * cols + c] = x;
+                if (x != 0) {
+                    changedColumns |= 1 << c;
+                    changed++;
+                    nibbles &= (m & 0xF0) == 0;
+                }
+                if (m != last || run == 256) {
+                    runs++;
+                    run = 0;
+                    last = m;
+                }
+                run++;
+                if (x != lastXor || xorRun == 256) {
+                    xorRuns++;
+                    xorRun = 0;
+                    lastXor = x;
+                }
+                xorRun++;
+            }
+            columns[r] = changedColumns;
+            if (changedColumns != 0) {
+                changedRows++;
+            }
+        }
+        out.putInt(chunk);
+        int masked = 4 + 4 * changedRows + (changed + 1) / 2;
+        if (xorable && nibbles && masked < 2 * xorRuns && masked < 2 * runs && masked < n) {
+            out.put(MASK);
+            mask(r0, c0, rows, out);
+        } else if (xorable && xorRuns < runs && 2 * xorRuns < n) {
+            out.put(XOR);
+            runs(xor, 0, n, out);
+        } else if (2 * runs < n) {
+            out.put(RLE);
+            for (int r = 0; r < rows; r++) {
+                System.arraycopy(frame, (r0 + r) * width + c0, xor, r * cols, cols);
+            }
+            runs(xor, 0, n, out);
+        } else {
+            out.put(RAW);
+            for (int r = 0; r < rows; r++) {
+                out.put(frame, (r0 + r) * width + c0, cols);
+            }
+        }
+    }
+
+    private void mask(int r0, int c0, int rows, ByteBuffer out) {
+        int rowBits = 0;
+        for (int r = 0; r < rows; r++) {
+            if (columns[r] != 0) {
+                rowBits |= 1 << r;
+            }
+        }
+        out.putInt(rowBits);
+        for (int r = 0; r < rows; r++) {
+            if (columns[r] != 0) {
+                out.putInt(columns[r]);
+            }
+        }
+        int half = -1;
+        for (int r = 0; r < rows; r++) {
+            for (int bits = columns[r]; bits != 0; bits &= bits - 1) {
+                int m = frame[(r0 + r) * width + c0 + Integer.numberOfTrailingZeros(bits)];
+                if (half < 0) {
+                    half = m << 4;
+                } else {
+                    out.put((byte) (half | m));
+                    half = -1;
+                }
+            }
+        }
+        if (half >= 0) {
+            out.put((byte) half);
+        }
+    }
+
+    private static void runs(byte[] cells, int from, int to, ByteBuffer out) {
+        int i = from;
+        while (i < to) {
+            byte m = cells[i];
+            int run = 1;
+            while (i + run < to && run < 256 && cells[i + run] == m) {
+                run++;
+            }
+            out.put(m).put((byte) (run - 1));
+            i += run;
+        }
+    }
+}
@@ -0,0 +1,667 @@
+package com.company;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// the board as one flat row-major byte[] of material ids (index = r * width + c)
+// plus one "already updated this tick" bit per cell
+//
+// the board is also cut into CHUNK x CHUNK chunks, each with a dirty rectangle of cells
+// that need looking at. every write wakes the cells around it (even across chunk borders),
+// and anything a chunk didn't wake during a tick goes to sleep for the next one
+//
+// every row also has a bitmap of its "live" cells, the ones whose material can move or react
+// (so not EMPTY, not ROCK), kept up to date on every write. the simulation walks those bits
+// instead of every cell, so empty space and rock cost next to nothing
+//
+// chunks two apart never touch the same cells, but they can share an updated-bits or live-bits word
+// or wake the same neighbour, so those are updated atomically (see ParallelSimulation)
+//
+// for Metrics the grid can also count cells per material and cells moved per tick. both are off
+// (and cost nothing) until metrics(true); moves and swaps don't create or destroy anything,
+// so only set() has to keep the counts right, and moves are counted from the updated bits at endTick
+final class Grid {
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    // 8 cells of the byte[] at a time as one long, lowest address in the lowest byte
+    private static final VarHandle WINDOW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+    private static final long HIGH = 0x8080808080808080L;
+
+    static final int CHUNK_SHIFT = 5;
+    static final int CHUNK = 1 << CHUNK_SHIFT;
+
+    final int width;
+    final int height;
+    final int chunksX;
+    final int chunksY;
+
+    private final byte[] cells;
+    // copy of cells taken at the end of every tick, only there when double buffered
+    private final byte[] front;
+    private final long[] updated;
+
+    // wordsPerRow longs per row, bit c of a row set = the cell in column c is live
+    final int wordsPerRow;
+    private final long[] occupied;
+    private final boolean[] live;
+    // live as 0 / 1, to build live bits without a branch per cell
+    private final long[] liveBit;
+
+    // 4 ints per chunk: minC, minR, maxC, maxR (inclusive), minC > maxC means asleep
+    // dirty is what this tick works on, next collects what gets woken up for the next one
+    private int[] dirty;
+    private int[] next;
+    // chunks that were awake (so could have changed) since the last snapshot, see takeUnsaved
+    private final boolean[] unsaved;
+    // the cells the last overlay() drew into front, and per chunk whether it changed any of it
+    private int[] overlay = new int[0];
+    private int overlays;
+    private final boolean[] overlaid;
+    private boolean overlaidAny;
+
+    // cells of each material, null unless metrics are on
+    private long[] population;
+    private boolean countMoves;
+    // cells that moved in the last tick, only counted when metrics are on
+    long moved;
+
+    Grid(int width, int height) {
+        this(width, height, false);
+    }
+
+    Grid(int width, int height, boolean doubleBuffered) {
+        this(width, height, doubleBuffered, MaterialTable.DEFAULT.active);
+    }
+
+    // live: which material ids count as live, normally the "active" table of the MaterialTable in use
+    Grid(int width, int height, boolean doubleBuffered, boolean[] live) {
+        this.width = width;
+        this.height = height;
+        cells = new byte[width * height];
+        front = doubleBuffered ? new byte[width * height] : null;
+        updated = new long[(width * height + 63) >> 6];
+        wordsPerRow = (width + 63) >> 6;
+        occupied = new long[wordsPerRow * height];
+        this.live = live;
+        liveBit = new long[live.length];
+        for (int m = 0; m < live.length; m++) {
+            liveBit[m] = live[m] ? 1 : 0;
+        }
+        chunksX = (width + CHUNK - 1) >> CHUNK_SHIFT;
+        chunksY = (height + CHUNK - 1) >> CHUNK_SHIFT;
+        dirty = new int[chunksX * chunksY * 4];
+        next = new int[chunksX * chunksY * 4];
+        unsaved = new boolean[chunksX * chunksY];
+        overlaid = new boolean[chunksX * chunksY];
+        clearRects(dirty);
+        clearRects(next);
+    }
+
+    int index(int r, int c) {
+        return r * width + c;
+    }
+
+    boolean inBounds(int r, int c) {
+        return r >= 0 && r < height && c >= 0 && c < width;
+    }
+
+    byte get(int r, int c) {
+        return cells[r * width + c];
+    }
+
+    byte get(int i) {
+        return cells[i];
+    }
+
+    void set(int r, int c, byte m) {
+        int i = r * width + c;
+        if (cells[i] != m) {
+            if (population != null) {
+                count(cells[i], m);
+            }
+            cells[i] = m;
+            occupy(r, c, m);
+            wake(r, c);
+        }
+    }
+
+    void set(int i, byte m) {
+        if (cells[i] != m) {
+            if (population != null) {
+                count(cells[i], m);
+            }
+            put(i, m);
+        }
+    }
+
+    // set() for moves, which only shuffle cells around and leave the population counts alone
+    private void put(int i, byte m) {
+        if (cells[i] != m) {
+            cells[i] = m;
+            int r = i / width;
+            int c = i - r * width;
+            occupy(r, c, m);
+            wake(r, c);
+        }
+    }
+
+    private void count(byte was, byte is) {
+        LONGS.getAndAdd(population, was, -1L);
+        LONGS.getAndAdd(population, is, 1L);
+    }
+
+    private void occupy(int r, int c, byte m) {
+        int k = r * wordsPerRow + (c >> 6);
+        long bit = 1L << c;
+        if (live[m]) {
+            if ((occupied[k] & bit) == 0) {
+                LONGS.getAndBitwiseOr(occupied, k, bit);
+            }
+        } else if ((occupied[k] & bit) != 0) {
+            LONGS.getAndBitwiseAnd(occupied, k, ~bit);
+        }
+    }
+
+    // the live bits of columns c0..c1 (inclusive) that fall into word w of row r
+    long liveBits(int r, int w, int c0, int c1) {
+        long bits = occupied[r * wordsPerRow + w];
+        if (w == c0 >> 6) {
+            bits &= -1L << c0;
+        }
+        if (w == c1 >> 6) {
+            bits &= -1L >>> (63 - (c1 & 63));
+        }
+        return bits;
+    }
+
+    // moves whatever is at "from" into "to", which has to be EMPTY, and leaves EMPTY behind
+    void move(int from, int to) {
+        put(to, cells[from]);
+        put(from, Cell.EMPTY);
+        markUpdated(to);
+    }
+
+    void swap(int a, int b) {
+        byte t = cells[a];
+        put(a, cells[b]);
+        put(b, t);
+        markUpdated(a);
+        markUpdated(b);
+    }
+
+    boolean isUpdated(int i) {
+        return (updated[i >> 6] & (1L << i)) != 0;
+    }
+
+    void markUpdated(int i) {
+        long bit = 1L << i;
+        if ((updated[i >> 6] & bit) == 0) {
+            LONGS.getAndBitwiseOr(updated, i >> 6, bit);
+        }
+    }
+
+    // the updated bits of the 32 cells from i on, cell i in the lowest bit
+    long updatedRow(int i) {
+        int w = i >> 6;
+        int shift = i & 63;
+        long bits = updated[w] >>> shift;
+        if (shift > 32) {
+            bits |= updated[w + 1] << (64 - shift);
+        }
+        return bits & 0xFFFFFFFFL;
+    }
+
+    // marks the cells from i on whose bits are set in the low 32 bits of row
+    void markUpdatedRow(int i, long row) {
+        int w = i >> 6;
+        int shift = i & 63;
+        LONGS.getAndBitwiseOr(updated, w, row << shift);
+        if (shift > 32) {
+            LONGS.getAndBitwiseOr(updated, w + 1, row >>> (64 - shift));
+        }
+    }
+
+    // a cell that could still do something (a coin flip went the other way) keeps its chunk awake
+    void keepAwake(int i) {
+        int r = i / width;
+        int c = i - r * width;
+        expand(next, (r >> CHUNK_SHIFT) * chunksX + (c >> CHUNK_SHIFT), c, r, c, r);
+    }
+
+    // wakes the 3x3 block around (r, c), which can spill into up to 3 neighbouring chunks
+    private void wake(int r, int c) {
+        wake(r - 1, c - 1, r + 1, c + 1);
+    }
+
+    // wakes rows r0..r1, columns c0..c1 (inclusive, clipped to the board)
+    private void wake(int r0, int c0, int r1, int c1) {
+        r0 = Math.max(r0, 0);
+        r1 = Math.min(r1, height - 1);
+        c0 = Math.max(c0, 0);
+        c1 = Math.min(c1, width - 1);
+        for (int cy = r0 >> CHUNK_SHIFT; cy <= r1 >> CHUNK_SHIFT; cy++) {
+            for (int cx = c0 >> CHUNK_SHIFT; cx <= c1 >> CHUNK_SHIFT; cx++) {
+                expand(next, cy * chunksX + cx,
+                        Math.max(c0, cx << CHUNK_SHIFT), Math.max(r0, cy << CHUNK_SHIFT),
+                        Math.min(c1, ((cx + 1) << CHUNK_SHIFT) - 1), Math.min(r1, ((cy + 1) << CHUNK_SHIFT) - 1));
+            }
+        }
+    }
+
+    // the bulk "fall straight down into EMPTY" step for row r, columns c0..c1, 8 cells at a time (SWAR).
+    // one long load per row finds the windows that have something above an EMPTY cell, the falling cells
+    // of a window are moved with one long store per row, and their live and updated bits are moved a window
+    // at a time. partial windows at the end, and everything that doesn't fall straight, is left to the
+    // per-cell rules. a window never reaches past c1, so this is as thread safe as the per-cell rules
+    int fallStraight(int r, int c0, int c1, boolean[] falls) {
+        int top = r * width;
+        int bottom = top + width;
+        int moved = 0;
+        for (int c = c0; c + 8 <= c1 + 1; c += 8) {
+            long up = (long) WINDOW.get(cells, top + c);
+            long down = (long) WINDOW.get(cells, bottom + c);
+            long candidates = nonEmpty(up) & ~nonEmpty(down);
+            if (candidates == 0) {
+                continue;
+            }
+            long mask = 0;
+            int cols = 0;
+            while (candidates != 0) {
+                int k = Long.numberOfTrailingZeros(candidates) >> 3;
+                candidates &= candidates - 1;
+                int i = top + c + k;
+                if (falls[cells[i]] && !isUpdated(i)) {
+                    mask |= 0xFFL << (k << 3);
+                    cols |= 1 << k;
+                }
+            }
+            if (cols == 0) {
+                continue;
+            }
+            WINDOW.set(cells, bottom + c, down | (up & mask));
+            WINDOW.set(cells, top + c, up & ~mask);
+            clearBits(occupied, r * wordsPerRow + (c >> 6), c & 63, cols);
+            setBits(occupied, (r + 1) * wordsPerRow + (c >> 6), c & 63, cols);
+            setBits(updated, (bottom + c) >> 6, (bottom + c) & 63, cols);
+            wake(r - 1, c + Integer.numberOfTrailingZeros(cols) - 1, r + 2, c + 31 - Integer.numberOfLeadingZeros(cols) + 1);
+            moved += Integer.bitCount(cols);
+        }
+        return moved;
+    }
+
+    // high bit of every byte of x that isn't 0 (EMPTY)
+    private static long nonEmpty(long x) {
+        return (((x & LOW7) + LOW7) | x) & HIGH;
+    }
+
+    // sets / clears 8 bits starting at bit "shift" of word, spilling into the next word if needed
+    private static void setBits(long[] words, int word, int shift, int bits) {
+        LONGS.getAndBitwiseOr(words, word, (long) bits << shift);
+        if (shift > 56) {
+            LONGS.getAndBitwiseOr(words, word + 1, (long) bits >>> (64 - shift));
+        }
+    }
+
+    private static void clearBits(long[] words, int word, int shift, int bits) {
+        LONGS.getAndBitwiseAnd(words, word, ~((long) bits << shift));
+        if (shift > 56) {
+            LONGS.getAndBitwiseAnd(words, word + 1, ~((long) bits >>> (64 - shift)));
+        }
+    }
+
+    // an asleep rect is (MAX, MAX, MIN, MIN) so growing it is just 4 independent min/max
+    private static void expand(int[] rects, int chunk, int minC, int minR, int maxC, int maxR) {
+        int k = chunk << 2;
+        lower(rects, k, minC);
+        lower(rects, k + 1, minR);
+        raise(rects, k + 2, maxC);
+        raise(rects, k + 3, maxR);
+    }
+
+    private static void lower(int[] a, int k, int v) {
+        int old = a[k];
+        while (v < old && !INTS.compareAndSet(a, k, old, v)) {
+            old = (int) INTS.getVolatile(a, k);
+        }
+    }
+
+    private static void raise(int[] a, int k, int v) {
+        int old = a[k];
+        while (v > old && !INTS.compareAndSet(a, k, old, v)) {
+            old = (int) INTS.getVolatile(a, k);
+        }
+    }
+
+    private static void clearRects(int[] rects) {
+        for (int k = 0; k < rects.length; k += 4) {
+            rects[k] = Integer.MAX_VALUE;
+            rects[k + 1] = Integer.MAX_VALUE;
+            rects[k + 2] = Integer.MIN_VALUE;
+            rects[k + 3] = Integer.MIN_VALUE;
+        }
+    }
+
+    // everything woken since the last tick becomes this tick's work
+    void beginTick() {
+        int[] t = dirty;
+        dirty = next;
+        next = t;
+        clearRects(next);
+    }
+
+    // clears the updated bits the tick could have set (the dirty rects plus one cell around them)
+    // and publishes what changed to the front buffer
+    void endTick() {
+        long moves = 0;
+        for (int k = 0; k < dirty.length; k += 4) {
+            if (next[k] <= next[k + 2]) {
+                unsaved[k >> 2] = true;
+            }
+            if (dirty[k] > dirty[k + 2]) {
+                continue;
+            }
+            unsaved[k >> 2] = true;
+            int c0 = Math.max(dirty[k] - 1, 0);
+            int c1 = Math.min(dirty[k + 2] + 1, width - 1);
+            for (int r = Math.max(dirty[k + 1] - 1, 0); r <= Math.min(dirty[k + 3] + 1, height - 1); r++) {
+                if (countMoves) {
+                    moves += countUpdated(r * width + c0, r * width + c1);
+                }
+                clearUpdated(r * width + c0, r * width + c1);
+            }
+        }
+        moved = moves;
+        if (front != null) {
+            // anything that changed this tick, or was painted in before it, sits in one of the two
+            publish(dirty);
+            publish(next);
+        }
+    }
+
+    // set updated bits in from..to. the rects of neighbouring chunks can overlap by the one cell ring,
+    // so a cell on a chunk border can get counted twice; close enough for a metric
+    private int countUpdated(int from, int to) {
+        int w0 = from >> 6;
+        int w1 = to >> 6;
+        long first = -1L << from;
+        long last = -1L >>> (63 - (to & 63));
+        if (w0 == w1) {
+            return Long.bitCount(updated[w0] & first & last);
+        }
+        int n = Long.bitCount(updated[w0] & first) + Long.bitCount(updated[w1] & last);
+        for (int w = w0 + 1; w < w1; w++) {
+            n += Long.bitCount(updated[w]);
+        }
+        return n;
+    }
+
+    private void clearUpdated(int from, int to) {
+        int w0 = from >> 6;
+        int w1 = to >> 6;
+        long first = -1L << from;
+        long last = -1L >>> (63 - (to & 63));
+        if (w0 == w1) {
+            updated[w0] &= ~(first & last);
+            return;
+        }
+        updated[w0] &= ~first;
+        for (int w = w0 + 1; w < w1; w++) {
+            updated[w] = 0L;
+        }
+        updated[w1] &= ~last;
+    }
+
+    private void publish(int[] rects) {
+        for (int k = 0; k < rects.length; k += 4) {
+            if (rects[k] > rects[k + 2]) {
+                continue;
+            }
+            int len = rects[k + 2] - rects[k] + 1;
+            for (int r = rects[k + 1]; r <= rects[k + 3]; r++) {
+                int i = r * width + rects[k];
+                System.arraycopy(cells, i, front, i, len);
+            }
+        }
+    }
+
+    // publishes what was written after endTick by whatever runs between ticks (leveling, heat),
+    // anything written since sits in a next rect
+    void publishWoken() {
+        if (front != null) {
+            publish(next);
+        }
+    }
+
+    // copies the whole board to the front buffer
+    void publish() {
+        if (front != null) {
+            System.arraycopy(cells, 0, front, 0, cells.length);
+        }
+    }
+
+    // draws n cells that aren't on the board (see Particles) into the front buffer on top of it: m[k] at
+    // cell at[k]. the cells the call before drew over get the board's own back first, so call it after
+    // the tick is published and once a tick. does nothing without a front buffer
+    void overlay(int[] at, byte[] m, int n) {
+        if (front == null || n == 0 && overlays == 0 && !overlaidAny) {
+            return;
+        }
+        Arrays.fill(overlaid, false);
+        overlaidAny = overlays > 0 || n > 0;
+        for (int k = 0; k < overlays; k++) {
+            int i = overlay[k];
+            front[i] = cells[i];
+            overlaid[chunkOf(i)] = true;
+        }
+        if (overlay.length < n) {
+            overlay = new int[Math.max(n, overlay.length * 2)];
+        }
+        for (int k = 0; k < n; k++) {
+            int i = at[k];
+            front[i] = m[k];
+            overlay[k] = i;
+            overlaid[chunkOf(i)] = true;
+        }
+        overlays = n;
+    }
+
+    // whether the last overlay() changed anything in the chunk's part of the front buffer
+    boolean overlaid(int chunk) {
+        return overlaid[chunk];
+    }
+
+    private int chunkOf(int i) {
+        return ((i / width) >> CHUNK_SHIFT) * chunksX + ((i % width) >> CHUNK_SHIFT);
+    }
+
+    // last published board, or the live one if there is no second buffer
+    byte[] front() {
+        return front != null ? front : cells;
+    }
+
+    byte[] cells() {
+        return cells;
+    }
+
+    // the dirty rects of the current tick, 4 ints per chunk (see above)
+    int[] dirty() {
+        return dirty;
+    }
+
+    // what was woken for the next tick so far, same layout
+    int[] woken() {
+        return next;
+    }
+
+    boolean isAwake(int chunk) {
+        return dirty[chunk << 2] <= dirty[(chunk << 2) + 2];
+    }
+
+    // awake this tick or woken for the next one, i.e. something in it could have been written since beginTick
+    boolean touched(int chunk) {
+        int k = chunk << 2;
+        return dirty[k] <= dirty[k + 2] || next[k] <= next[k + 2];
+    }
+
+    int awakeChunks() {
+        int n = 0;
+        for (int k = 0; k < chunksX * chunksY; k++) {
+            if (isAwake(k)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    // true if the chunk could have changed since the last call, and forgets it.
+    // every write wakes its chunk, so an awake chunk (this tick or since) is the only kind that can have
+    boolean takeUnsaved(int chunk) {
+        boolean was = unsaved[chunk] || next[chunk << 2] <= next[(chunk << 2) + 2];
+        unsaved[chunk] = false;
+        return was;
+    }
+
+    // the cells of a chunk were overwritten straight in cells(), e.g. by a snapshot being loaded:
+    // rebuilds its live bits and wakes it. a chunk is 32 columns starting at a multiple of 32,
+    // so its bits never straddle two words
+    void reload(int chunk) {
+        int c0 = (chunk % chunksX) << CHUNK_SHIFT;
+        int r0 = (chunk / chunksX) << CHUNK_SHIFT;
+        int c1 = Math.min(c0 + CHUNK, width) - 1;
+        int r1 = Math.min(r0 + CHUNK, height) - 1;
+        int shift = c0 & 63;
+        long mask = ((1L << (c1 - c0 + 1)) - 1) << shift;
+        for (int r = r0; r <= r1; r++) {
+            long bits = 0;
+            for (int c = c0, i = r * width + c0; c <= c1; c++, i++) {
+                bits |= liveBit[cells[i]] << (c & 63);
+            }
+            int k = r * wordsPerRow + (c0 >> 6);
+            occupied[k] = (occupied[k] & ~mask) | bits;
+        }
+        wake(r0 - 1, c0 - 1, r1 + 1, c1 + 1);
+    }
+
+    // turns the counting for Metrics on or off, between ticks
+    void metrics(boolean on) {
+        countMoves = on;
+        moved = 0;
+        population = on ? new long[Cell.COUNT] : null;
+        recount();
+    }
+
+    // cells of each material, or null when metrics are off. only exact between ticks
+    long[] population() {
+        return population;
+    }
+
+    // counts the whole board again, after it was overwritten in bulk (snapshot loaded, filled...)
+    void recount() {
+        if (population == null) {
+            return;
+        }
+        Arrays.fill(population, 0);
+        for (byte m : cells) {
+            population[m]++;
+        }
+    }
+
+    // copies the size x size block with its top left corner at (r0, c0) out of the board, row by row
+    void readBlock(int r0, int c0, int size, byte[] dst) {
+        readRect(r0, c0, size, size, dst);
+    }
+
+    void readRect(int r0, int c0, int rows, int cols, byte[] dst) {
+        for (int r = 0; r < rows; r++) {
+            System.arraycopy(cells, (r0 + r) * width + c0, dst, r * cols, cols);
+        }
+    }
+
+    // for a scratch board that gets one chunk at a time loaded into it (see SparseEngine): overwrites
+    // the rect and fixes its live bits, but wakes nothing and leaves the population counts alone.
+    // single threaded only, the live bits are written without atomics
+    void load(int r0, int c0, int rows, int cols, byte[] src) {
+        for (int r = 0; r < rows; r++) {
+            System.arraycopy(src, r * cols, cells, (r0 + r) * width + c0, cols);
+            // a word of live bits at a time
+            int j = r * cols;
+            for (int c = c0; c < c0 + cols; ) {
+                int k = (r0 + r) * wordsPerRow + (c >> 6);
+                int end = Math.min(c0 + cols, (c | 63) + 1);
+                long mask = (-1L << c) & (-1L >>> (63 - ((end - 1) & 63)));
+                long bits = 0;
+                for (; c < end; c++) {
+                    bits |= liveBit[src[j++]] << c;
+                }
+                occupied[k] = (occupied[k] & ~mask) | bits;
+            }
+        }
+    }
+
+    // the same kind of board: puts every chunk to sleep and clears the updated bits, then makes
+    // columns c0..c1, rows r0..r1 of one chunk this tick's work. what that wakes ends up in woken()
+    void focus(int chunk, int c0, int r0, int c1, int r1) {
+        clearRects(dirty);
+        clearRects(next);
+        Arrays.fill(updated, 0L);
+        expand(dirty, chunk, c0, r0, c1, r1);
+    }
+
+    // for a strip of a bigger board (see StripWorker): a cell some other worker wrote. sets it and its live bit,
+    // the waking is already done, the writer sends what it woke along with it (see wake below)
+    void mirror(int i, byte m) {
+        cells[i] = m;
+        occupy(i / width, i % width, m);
+    }
+
+    // wakes columns c0..c1, rows r0..r1 of one chunk for the next tick, on top of what's woken already
+    void wake(int chunk, int c0, int r0, int c1, int r1) {
+        expand(next, chunk, c0, r0, c1, r1);
+    }
+
+    // clears the updated bits of row r, for the rows endTick can't know someone else wrote into
+    void clearUpdatedRow(int r) {
+        clearUpdated(r * width, r * width + width - 1);
+    }
+
+    // the other way round: overwrites the block, fixes its live bits and wakes it and the cells around it
+    void writeBlock(int r0, int c0, int size, byte[] src) {
+        for (int r = 0; r < size; r++) {
+            int row = (r0 + r) * width + c0;
+            if (population != null) {
+                for (int c = 0; c < size; c++) {
+                    count(cells[row + c], src[r * size + c]);
+                }
+            }
+            System.arraycopy(src, r * size, cells, row, size);
+            for (int c = 0; c < size; c++) {
+                occupy(r0 + r, c0 + c, src[r * size + c]);
+            }
+        }
+        wake(r0 - 1, c0 - 1, r0 + size, c0 + size);
+    }
+
+    void fill(byte m) {
+        Arrays.fill(cells, m);
+        if (live[m]) {
+            long tail = -1L >>> (63 - ((width - 1) & 63));
+            for (int r = 0; r < height; r++) {
+                Arrays.fill(occupied, r * wordsPerRow, (r + 1) * wordsPerRow, -1L);
+                occupied[(r + 1) * wordsPerRow - 1] = tail;
+            }
+        } else {
+            Arrays.fill(occupied, 0L);
+        }
+        for (int cy = 0; cy < chunksY; cy++) {
+            for (int cx = 0; cx < chunksX; cx++) {
+                expand(next, cy * chunksX + cx, cx << CHUNK_SHIFT, cy << CHUNK_SHIFT,
+                        Math.min(((cx + 1) << CHUNK_SHIFT), width) - 1, Math.min(((cy + 1) << CHUNK_SHIFT), height) - 1);
+            }
+        }
+        recount();
+        publish();
+    }
+}
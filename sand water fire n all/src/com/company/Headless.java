@@ -0,0 +1,179 @@
+package com.company;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+// runs the simulation without a window, as fast as it goes, and prints ticks per second
+//
+//   java com.company.Headless [--size 1024] [--ticks 1000] [--scenario MIXED] [--seed 1] [--serial] [--bulk] [--no-leveling] [--no-heat]
+//                             [--world 65536] [--paged dir] [--budget 64] [--serve 7777] [--fps 60] [--key-every 600] [--blast 0]
+//
+// --world puts the scenario's board at the bottom of an otherwise empty SparseWorld that big
+// and runs that with a SparseEngine instead (one thread, DEFAULT rules)
+//
+// --paged puts the scenario's board at the origin of a PagedWorld kept in dir, which has no edges, and runs
+// that with a SparseEngine (one thread, DEFAULT rules): whatever leaves the board goes on wherever it goes.
+// --budget is how many MB of chunks stay in memory, the rest is paged out to dir
+//
+// --serve streams the board on that port while it runs (see FrameServer, watch it with FrameClient),
+// at most --fps frames a second and a keyframe every --key-every frames
+//
+// --blast throws everything within that radius of the middle of the board in the air (see Particles)
+// before the first tick
+public class Headless {
+
+    public static void main(String[] args) throws IOException {
+        int size = 1024;
+        int ticks = 1000;
+        Scenario scenario = Scenario.MIXED;
+        long seed = 1;
+        boolean parallel = true;
+        boolean bulk = false;
+        boolean leveling = true;
+        boolean heat = true;
+        int world = 0;
+        Path paged = null;
+        long budget = 64;
+        int serve = -1;
+        double fps = 60;
+        int keyEvery = 600;
+        int blast = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--size":
+                    size = Integer.parseInt(args[++i]);
+                    break;
+                case "--ticks":
+                    ticks = Integer.parseInt(args[++i]);
+                    break;
+                case "--scenario":
+                    scenario = Scenario.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--serial":
+                    parallel = false;
+                    break;
+                case "--bulk":
+                    bulk = true;
+                    break;
+                case "--no-leveling":
+                    leveling = false;
+                    break;
+                case "--no-heat":
+                    heat = false;
+                    break;
+                case "--world":
+                    world = Integer.parseInt(args[++i]);
+                    break;
+                case "--paged":
+                    paged = Paths.get(args[++i]);
+                    break;
+                case "--budget":
+                    budget = Long.parseLong(args[++i]);
+                    break;
+                case "--serve":
+                    serve = Integer.parseInt(args[++i]);
+                    break;
+                case "--fps":
+                    fps = Double.parseDouble(args[++i]);
+                    break;
+                case "--key-every":
+                    keyEvery = Integer.parseInt(args[++i]);
+                    break;
+                case "--blast":
+                    blast = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        if (world > 0) {
+            sparse(scenario, size, world, ticks, seed);
+            return;
+        }
+        if (paged != null) {
+            paged(scenario, size, paged, budget << 20, ticks, seed);
+            return;
+        }
+
+        SimulationEngine engine = new SimulationEngine(size, size, parallel);
+        engine.bulkFall(bulk);
+        engine.heat(heat);
+        engine.leveling(leveling);
+        scenario.seed(engine, seed);
+        if (blast > 0) {
+            engine.paint(Stroke.blast(size / 2, size / 2, blast, 1));
+            System.out.println(engine.particles.count + " cells thrown");
+        }
+
+        FrameServer server = serve >= 0 ? new FrameServer(serve, size, size, fps, keyEvery) : null;
+        if (server != null) {
+            System.out.println("serving frames on port " + server.port());
+        }
+
+        long start = System.nanoTime();
+        if (server == null) {
+            engine.step(ticks);
+        } else {
+            for (int t = 0; t < ticks; t++) {
+                engine.step();
+                server.offer(engine.front(), engine.tick());
+            }
+        }
+        long nanos = System.nanoTime() - start;
+
+        if (server != null) {
+            System.out.printf(Locale.ROOT, "%d frames sent, %.1f KB%n", server.messagesSent, server.bytesSent / 1024.0);
+            server.close();
+        }
+        System.out.printf(Locale.ROOT, "%s %dx%d, %d ticks in %.1f ms: %.1f ticks/s (%s%s%s%s)%n",
+                scenario, size, size, ticks, nanos / 1e6, ticks * 1e9 / nanos,
+                parallel ? "parallel" : "serial", bulk ? ", bulk fall" : "", leveling ? "" : ", no leveling",
+                heat ? "" : ", no heat");
+    }
+
+    private static void sparse(Scenario scenario, int size, int worldSize, int ticks, long seed) {
+        SimulationEngine board = new SimulationEngine(size, size, false);
+        scenario.seed(board, seed);
+        SparseWorld w = new SparseWorld(worldSize);
+        SparseEngine engine = new SparseEngine(w, seed);
+        engine.write((worldSize - size) / 2, worldSize - size, size, size, board.front());
+
+        long start = System.nanoTime();
+        engine.step(ticks);
+        long nanos = System.nanoTime() - start;
+
+        System.out.printf(Locale.ROOT, "%s %dx%d in a %dx%d world, %d ticks in %.1f ms: %.1f ticks/s (sparse)%n",
+                scenario, size, size, worldSize, worldSize, ticks, nanos / 1e6, ticks * 1e9 / nanos);
+        System.out.printf(Locale.ROOT, "%d detailed leaves of %d, %d awake, ~%d KB (dense: %d KB)%n",
+                w.detailedLeaves(), (long) w.leaves * w.leaves, engine.awakeLeaves(), w.bytes() >> 10,
+                (long) worldSize * worldSize >> 10);
+    }
+
+    private static void paged(Scenario scenario, int size, Path dir, long budget, int ticks, long seed) throws IOException {
+        SimulationEngine board = new SimulationEngine(size, size, false);
+        scenario.seed(board, seed);
+        try (PagedWorld w = new PagedWorld(dir, budget)) {
+            w.focus(0, 0, (size - 1) >> Grid.CHUNK_SHIFT, (size - 1) >> Grid.CHUNK_SHIFT);
+            SparseEngine engine = new SparseEngine(w, seed);
+            engine.write(0, 0, size, size, board.front());
+
+            long start = System.nanoTime();
+            engine.step(ticks);
+            long nanos = System.nanoTime() - start;
+
+            System.out.printf(Locale.ROOT, "%s %dx%d in a paged world, %d ticks in %.1f ms: %.1f ticks/s (paged)%n",
+                    scenario, size, size, ticks, nanos / 1e6, ticks * 1e9 / nanos);
+            System.out.printf(Locale.ROOT, "%d chunks awake, %d resident (~%d KB), %d paged in, %d written out%n",
+                    engine.awakeLeaves(), w.residentChunks(), (long) w.residentChunks() * Grid.CHUNK * Grid.CHUNK >> 10,
+                    w.pageIns, w.pageOuts);
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package com.company;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// a temperature for every cell of the board, in a float[] next to it, and what the temperatures do to it.
+//
+// every tick, heat flows between the 4 neighbours of every cell (a 5 point stencil, between two materials
+// the geometric mean of their conductivities decides how much), every cell drifts a bit towards its material's
+// own temperature, and a cell that ends up past its material's melting or freezing point turns into
+// something else (see MaterialTable.THERMAL). a cell that turns into another material starts at that
+// material's temperature, if it has one (lava is hot, snow is cold), otherwise it keeps what it had.
+// heat stays where it is when cells move, it doesn't travel with them
+//
+// the field is double buffered and worked on in tiles, one per grid chunk, so a tile's rows plus the
+// ring around them sit in L1 while it's worked on; the tiles of a chunk row go to one ForkJoin task.
+// a tile is skipped while it and its 4 neighbours have settled (nothing changed by more than SETTLED
+// last tick) and no cell turned into another material in a way that unsettles it, so a board that cooled
+// off costs next to nothing, even with things moving around in it: sand falling through air that's all
+// at AMBIENT changes materials but no temperature. a tick is 4 passes over the tiles: cells that turned
+// into another material get its starting temperature (only looked for in chunks the grid woke up), a look
+// at whether any of them (or their neighbours) would now change by more than SETTLED, the stencil, and
+// melting and freezing. so the stencil only ever reads a board and a field nobody writes to, and the result is
+// the same on any number of threads. which tiles get worked on only depends on the board and the
+// field, so a board loaded from a Snapshot carries on exactly like the one that was saved
+final class HeatField {
+    // degrees; a tile where no cell changed by more than this is settled
+    static final float SETTLED = 1e-3f;
+    private static final int CHUNK = Grid.CHUNK;
+
+    private final Grid grid;
+    private final byte[] cells;
+    private final int width;
+    private final int height;
+    private final int chunksX;
+    private final int chunksY;
+    // null: everything on the calling thread
+    private final ForkJoinPool pool;
+
+    private float[] temp;
+    private float[] next;
+    // the material a cell had when it was last worked on, -1 = never
+    private final byte[] seen;
+    // the square root of that material's conductivity: what flows between i and j is g[i] * g[j] * (t[j] - t[i]),
+    // and the stencil doesn't have to look anything up for the neighbours
+    private final float[] g;
+
+    // per tile: changed by more than SETTLED the last time it was worked on (and the same for this tick)
+    private boolean[] warm;
+    private boolean[] warmNext;
+    // gets worked on this tick
+    private final boolean[] work;
+    // some of its cells turned into another material since the last step (pending), and that unsettled it (touched)
+    private final boolean[] pending;
+    private final boolean[] touched;
+    // one bit per cell, set for the cells that turned into another material, until the check pass.
+    // wordsPerRow longs per row like the grid's live bits, so no word is shared by two bands
+    private final long[] begun;
+    private final int wordsPerRow;
+    // was worked on last tick, so the other buffer is a tick behind in it
+    private final boolean[] fresh;
+    // something in it is past a melting or freezing point
+    private final boolean[] crossed;
+    // worked on since the last takeUnsaved, see Snapshot
+    private final boolean[] unsaved;
+    private final int[] bandChanges;
+    // seen[] means nothing, every tile has to be looked at for changed cells
+    private boolean checkAll;
+    // every tile gets worked on, see wakeAll
+    private boolean workAll;
+
+    // square roots of MaterialTable.conduct
+    private final float[] root = new float[MaterialTable.N];
+    private final float[] rest;
+    private final float[] pull;
+    private final float[] start;
+    private final float[] meltAt;
+    private final byte[] meltTo;
+    private final float[] freezeAt;
+    private final byte[] freezeTo;
+
+    // cells that melted or froze in the last step, for Metrics
+    long changed;
+
+    HeatField(Grid grid, MaterialTable table, boolean parallel) {
+        this.grid = grid;
+        cells = grid.cells();
+        width = grid.width;
+        height = grid.height;
+        chunksX = grid.chunksX;
+        chunksY = grid.chunksY;
+        pool = parallel ? ForkJoinPool.commonPool() : null;
+        temp = new float[width * height];
+        next = new float[width * height];
+        seen = new byte[width * height];
+        g = new float[width * height];
+        int tiles = chunksX * chunksY;
+        warm = new boolean[tiles];
+        warmNext = new boolean[tiles];
+        work = new boolean[tiles];
+        pending = new boolean[tiles];
+        touched = new boolean[tiles];
+        wordsPerRow = (width + 63) >> 6;
+        begun = new long[wordsPerRow * height];
+        fresh = new boolean[tiles];
+        crossed = new boolean[tiles];
+        unsaved = new boolean[tiles];
+        bandChanges = new int[chunksY];
+        for (int m = 0; m < MaterialTable.N; m++) {
+            root[m] = (float) Math.sqrt(table.conduct[m]);
+        }
+        rest = table.rest;
+        pull = table.pull;
+        start = table.start;
+        meltAt = table.meltAt;
+        meltTo = table.meltTo;
+        freezeAt = table.freezeAt;
+        freezeTo = table.freezeTo;
+        reset();
+    }
+
+    // everything back to AMBIENT, then every cell gets its material's starting temperature on the next step
+    void reset() {
+        Arrays.fill(temp, MaterialTable.AMBIENT);
+        Arrays.fill(next, MaterialTable.AMBIENT);
+        Arrays.fill(seen, (byte) -1);
+        Arrays.fill(fresh, false);
+        Arrays.fill(warm, false);
+        checkAll = true;
+    }
+
+    // works on every tile on the next step, settled or not
+    void wakeAll() {
+        workAll = true;
+    }
+
+    float get(int r, int c) {
+        return temp[r * width + c];
+    }
+
+    // the current temperatures, row-major like the board. between ticks only
+    float[] temperatures() {
+        return temp;
+    }
+
+    // between ticks, on the thread that steps the grid, after the grid's tick
+    void step() {
+        pass(START);
+        pass(CHECK);
+        plan();
+        pass(DIFFUSE);
+        float[] t = temp;
+        temp = next;
+        next = t;
+        boolean[] w = warm;
+        warm = warmNext;
+        warmNext = w;
+        pass(PHASES);
+        long n = 0;
+        for (int v : bandChanges) {
+            n += v;
+        }
+        changed = n;
+    }
+
+    private static final int START = 0;
+    private static final int CHECK = 1;
+    private static final int DIFFUSE = 2;
+    private static final int PHASES = 3;
+
+    private void pass(int pass) {
+        if (pool != null) {
+            pool.invoke(new Bands(0, chunksY, pass));
+            return;
+        }
+        for (int cy = 0; cy < chunksY; cy++) {
+            band(cy, pass);
+        }
+    }
+
+    private void band(int cy, int pass) {
+        if (pass == START) {
+            start(cy);
+        } else if (pass == CHECK) {
+            check(cy);
+        } else if (pass == DIFFUSE) {
+            diffuse(cy);
+        } else {
+            phases(cy);
+        }
+    }
+
+    // which tiles get worked on, all of them up front: the phase changes of one band wake chunks in the next.
+    // a touched tile counts as warm, a changed cell on its edge can unsettle the tile next to it
+    private void plan() {
+        for (int cy = 0; cy < chunksY; cy++) {
+            for (int cx = 0; cx < chunksX; cx++) {
+                int k = cy * chunksX + cx;
+                work[k] = workAll || hot(k)
+                        || (cx > 0 && hot(k - 1)) || (cx + 1 < chunksX && hot(k + 1))
+                        || (cy > 0 && hot(k - chunksX)) || (cy + 1 < chunksY && hot(k + chunksX));
+            }
+        }
+        checkAll = false;
+        workAll = false;
+    }
+
+    private boolean hot(int k) {
+        return warm[k] || touched[k];
+    }
+
+    // one chunk row of tiles: cells that aren't the material they were last time start at the new one's temperature
+    private void start(int cy) {
+        int r0 = cy * CHUNK;
+        int r1 = Math.min(r0 + CHUNK, height);
+        for (int cx = 0; cx < chunksX; cx++) {
+            int k = cy * chunksX + cx;
+            pending[k] = false;
+            // nothing can have changed in a chunk the grid didn't wake
+            if (!checkAll && !grid.touched(k)) {
+                continue;
+            }
+            int c0 = cx * CHUNK;
+            int c1 = Math.min(c0 + CHUNK, width);
+            for (int r = r0; r < r1; r++) {
+                int from = r * width + c0;
+                int to = r * width + c1;
+                int d;
+                while ((d = Arrays.mismatch(cells, from, to, seen, from, to)) >= 0) {
+                    int i = from + d;
+                    begin(i, cells[i]);
+                    int c = i - r * width;
+                    begun[r * wordsPerRow + (c >> 6)] |= 1L << c;
+                    pending[k] = true;
+                    from = i + 1;
+                }
+            }
+        }
+    }
+
+    // one chunk row of tiles, after start() is done everywhere: a tile with changed cells only has to be worked
+    // on if one of them or a neighbour would now change by more than SETTLED. one that's warm gets worked on anyway
+    private void check(int cy) {
+        int r0 = cy * CHUNK;
+        int r1 = Math.min(r0 + CHUNK, height);
+        for (int cx = 0; cx < chunksX; cx++) {
+            int k = cy * chunksX + cx;
+            touched[k] = false;
+            if (!pending[k]) {
+                continue;
+            }
+            boolean unsettled = checkAll || warm[k];
+            int c0 = cx * CHUNK;
+            int c1 = Math.min(c0 + CHUNK, width);
+            // a chunk's 32 columns start at a multiple of 32, so they're all in one word
+            long mask = (-1L >>> (64 - (c1 - c0))) << (c0 & 63);
+            for (int r = r0; r < r1; r++) {
+                int w = r * wordsPerRow + (c0 >> 6);
+                long bits = begun[w] & mask;
+                begun[w] &= ~mask;
+                for (; bits != 0 && !unsettled; bits &= bits - 1) {
+                    int c = ((c0 >> 6) << 6) + Long.numberOfTrailingZeros(bits);
+                    int i = r * width + c;
+                    unsettled = unsettled(i, r, c)
+                            || r > 0 && unsettled(i - width, r - 1, c) || r + 1 < height && unsettled(i + width, r + 1, c)
+                            || c > 0 && unsettled(i - 1, r, c - 1) || c + 1 < width && unsettled(i + 1, r, c + 1);
+                }
+            }
+            touched[k] = unsettled;
+        }
+    }
+
+    // whether the stencil would change cell i by more than SETTLED, the same sum as edge()
+    private boolean unsettled(int i, int r, int c) {
+        float t = temp[i];
+        float flow = 0;
+        if (r > 0) {
+            flow += g[i - width] * (temp[i - width] - t);
+        }
+        if (r + 1 < height) {
+            flow += g[i + width] * (temp[i + width] - t);
+        }
+        if (c > 0) {
+            flow += g[i - 1] * (temp[i - 1] - t);
+        }
+        if (c + 1 < width) {
+            flow += g[i + 1] * (temp[i + 1] - t);
+        }
+        byte m = cells[i];
+        return Math.abs(t + g[i] * flow + pull[m] * (rest[m] - t) - t) > SETTLED;
+    }
+
+    // cell i just turned into m. both buffers get the starting temperature: if it doesn't unsettle the tile,
+    // the tile isn't worked on and the swap after the stencil would bring the old one back
+    private boolean begin(int i, byte m) {
+        seen[i] = m;
+        g[i] = root[m];
+        if (start[m] == start[m]) {
+            temp[i] = start[m];
+            next[i] = start[m];
+            return true;
+        }
+        return false;
+    }
+
+    // one chunk row of tiles, temp into next
+    private void diffuse(int cy) {
+        int r0 = cy * CHUNK;
+        int r1 = Math.min(r0 + CHUNK, height);
+        for (int cx = 0; cx < chunksX; cx++) {
+            int k = cy * chunksX + cx;
+            int c0 = cx * CHUNK;
+            int c1 = Math.min(c0 + CHUNK, width);
+            if (work[k]) {
+                tile(k, r0, r1, c0, c1);
+                fresh[k] = true;
+                unsaved[k] = true;
+            } else {
+                warmNext[k] = false;
+                crossed[k] = false;
+                if (fresh[k]) {
+                    for (int r = r0; r < r1; r++) {
+                        System.arraycopy(temp, r * width + c0, next, r * width + c0, c1 - c0);
+                    }
+                    fresh[k] = false;
+                }
+            }
+        }
+    }
+
+    private void tile(int tile, int r0, int r1, int c0, int c1) {
+        boolean moving = false;
+        boolean past = false;
+        for (int r = r0; r < r1; r++) {
+            int row = r * width;
+            int from = row + c0;
+            int to = row + c1;
+            if (r == 0 || r == height - 1) {
+                for (int i = from; i < to; i++) {
+                    moving |= edge(i, r, i - row);
+                }
+            } else {
+                if (c0 == 0) {
+                    moving |= edge(from++, r, 0);
+                }
+                if (c1 == width) {
+                    moving |= edge(--to, r, width - 1);
+                }
+                // the inside of the board, all 4 neighbours there
+                for (int i = from; i < to; i++) {
+                    float t = temp[i];
+                    float flow = g[i] * (g[i - width] * (temp[i - width] - t) + g[i + width] * (temp[i + width] - t)
+                            + g[i - 1] * (temp[i - 1] - t) + g[i + 1] * (temp[i + 1] - t));
+                    byte m = cells[i];
+                    float v = t + flow + pull[m] * (rest[m] - t);
+                    next[i] = v;
+                    moving |= Math.abs(v - t) > SETTLED;
+                    past |= v > meltAt[m] | v < freezeAt[m];
+                }
+            }
+        }
+        warmNext[tile] = moving;
+        crossed[tile] = past;
+    }
+
+    // a cell on the edge of the board, where a missing neighbour doesn't conduct. true if it moved
+    private boolean edge(int i, int r, int c) {
+        float t = temp[i];
+        float flow = 0;
+        if (r > 0) {
+            flow += g[i - width] * (temp[i - width] - t);
+        }
+        if (r + 1 < height) {
+            flow += g[i + width] * (temp[i + width] - t);
+        }
+        if (c > 0) {
+            flow += g[i - 1] * (temp[i - 1] - t);
+        }
+        if (c + 1 < width) {
+            flow += g[i + 1] * (temp[i + 1] - t);
+        }
+        byte m = cells[i];
+        float v = t + g[i] * flow + pull[m] * (rest[m] - t);
+        next[i] = v;
+        return Math.abs(v - t) > SETTLED;
+    }
+
+    // one chunk row of tiles: whatever is past its melting or freezing point turns into something else
+    private void phases(int cy) {
+        int changes = 0;
+        int r0 = cy * CHUNK;
+        int r1 = Math.min(r0 + CHUNK, height);
+        for (int cx = 0; cx < chunksX; cx++) {
+            if (!crossed[cy * chunksX + cx]) {
+                continue;
+            }
+            int c0 = cx * CHUNK;
+            int c1 = Math.min(c0 + CHUNK, width);
+            int k = cy * chunksX + cx;
+            for (int r = r0; r < r1; r++) {
+                for (int i = r * width + c0; i < r * width + c1; i++) {
+                    byte m = cells[i];
+                    float v = temp[i];
+                    byte to;
+                    if (v > meltAt[m]) {
+                        to = meltTo[m];
+                    } else if (v < freezeAt[m]) {
+                        to = freezeTo[m];
+                    } else {
+                        continue;
+                    }
+                    grid.set(i, to);
+                    // right away rather than next step, so nothing is left pending between ticks
+                    if (begin(i, to)) {
+                        warm[k] = true;
+                    }
+                    changes++;
+                }
+            }
+        }
+        bandChanges[cy] = changes;
+    }
+
+    // true if the tile of this chunk could have changed since the last call, and forgets it
+    boolean takeUnsaved(int chunk) {
+        boolean was = unsaved[chunk];
+        unsaved[chunk] = false;
+        return was;
+    }
+
+    // settled tiles (and all 4 around them) don't get worked on
+    boolean isWarm(int chunk) {
+        return warm[chunk];
+    }
+
+    // the temperatures of a chunk were overwritten straight in temperatures() (a snapshot was loaded),
+    // and its cells already hold the materials they belong to
+    void reload(int chunk, boolean warm) {
+        int c0 = (chunk % chunksX) * CHUNK;
+        int r0 = (chunk / chunksX) * CHUNK;
+        int c1 = Math.min(c0 + CHUNK, width);
+        int r1 = Math.min(r0 + CHUNK, height);
+        for (int r = r0; r < r1; r++) {
+            int i = r * width + c0;
+            System.arraycopy(temp, i, next, i, c1 - c0);
+            System.arraycopy(cells, i, seen, i, c1 - c0);
+            for (int j = i; j < i + c1 - c0; j++) {
+                g[j] = root[cells[j]];
+            }
+        }
+        fresh[chunk] = false;
+        this.warm[chunk] = warm;
+    }
+
+    private class Bands extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int pass;
+
+        Bands(int from, int to, int pass) {
+            this.from = from;
+            this.to = to;
+            this.pass = pass;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Bands(from, mid, pass), new Bands(mid, to, pass));
+            } else {
+                band(from, pass);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.company;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// a latency histogram in nanoseconds. values go into power of two buckets split 4 ways,
+// so a percentile comes out at most 25% high, and recording is a couple of shifts and one add.
+// one thread records, any thread can read. a reset() from another thread can lose a value being recorded
+final class Histogram {
+    private static final int SUB = 2;
+    private final AtomicLongArray buckets = new AtomicLongArray(64 << SUB);
+    private volatile long count;
+    private volatile long sum;
+    private volatile long max;
+
+    void record(long value) {
+        int b = bucket(value);
+        buckets.lazySet(b, buckets.get(b) + 1);
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+        count++;
+    }
+
+    long count() {
+        return count;
+    }
+
+    long mean() {
+        long n = count;
+        return n == 0 ? 0 : sum / n;
+    }
+
+    long max() {
+        return max;
+    }
+
+    // the value p percent of recorded values are at or below (rounded up to its bucket)
+    long percentile(double p) {
+        long n = count;
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * p / 100);
+        long seen = 0;
+        for (int b = 0; b < buckets.length(); b++) {
+            seen += buckets.get(b);
+            if (seen >= rank) {
+                return Math.min(upper(b), max);
+            }
+        }
+        return max;
+    }
+
+    void reset() {
+        for (int b = 0; b < buckets.length(); b++) {
+            buckets.set(b, 0);
+        }
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    // 0..3 as they are, then for every power of two 2^e (e >= 2) four buckets of 2^(e - 2)
+    static int bucket(long value) {
+        if (value < 1 << SUB) {
+            return (int) Math.max(value, 0);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB;
+        return ((shift + 1) << SUB) + (int) ((value >>> shift) & ((1 << SUB) - 1));
+    }
+
+    // the biggest value that goes into bucket b
+    static long upper(int b) {
+        if (b < 1 << SUB) {
+            return b;
+        }
+        int shift = (b >> SUB) - 1;
+        long mantissa = (b & ((1 << SUB) - 1)) | (1 << SUB);
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,137 @@
+package com.company;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+// one end of a connection between the Coordinator and a StripWorker, or between two neighbouring
+// workers: messages over a non-blocking SocketChannel, each one an int length, an int type and the rest
+//
+// nothing here ever blocks on its own, await() is where the waiting happens: it keeps writing and reading
+// on all the links it's given until every one of them has a message in, so two workers sending each other
+// a big halo at the same time can't get stuck with both their send buffers full
+final class Link {
+    final SocketChannel channel;
+    private final SelectionKey key;
+    private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+    // what came in and wasn't taken yet, grows to fit the biggest message
+    private ByteBuffer in = ByteBuffer.allocate(1 << 16);
+
+    Link(SocketChannel channel, Selector selector) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    // a message to fill in and send(), with room for payload bytes after the type
+    static ByteBuffer message(int type, int payload) {
+        ByteBuffer m = ByteBuffer.allocate(8 + payload);
+        m.putInt(0).putInt(type);
+        return m;
+    }
+
+    // queues a message from message() and writes as much of it as goes right away
+    void send(ByteBuffer m) throws IOException {
+        m.flip();
+        m.putInt(0, m.limit() - 4);
+        out.add(m);
+        flush();
+    }
+
+    // writes what's queued until the socket won't take more, true when nothing is left
+    boolean flush() throws IOException {
+        while (!out.isEmpty()) {
+            ByteBuffer m = out.peek();
+            channel.write(m);
+            if (m.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return false;
+            }
+            out.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        return true;
+    }
+
+    // the next whole message that came in, positioned at its type, or null if there isn't one yet
+    ByteBuffer receive() throws IOException {
+        ByteBuffer m = take();
+        if (m != null) {
+            return m;
+        }
+        if (channel.read(in) < 0) {
+            throw new EOFException("connection closed by " + channel.getRemoteAddress());
+        }
+        return take();
+    }
+
+    private ByteBuffer take() {
+        if (in.position() < 4) {
+            return null;
+        }
+        int length = in.getInt(0);
+        if (length + 4 > in.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocate(length + 4);
+            in.flip();
+            bigger.put(in);
+            in = bigger;
+        }
+        if (in.position() < length + 4) {
+            return null;
+        }
+        ByteBuffer m = ByteBuffer.allocate(length);
+        in.flip();
+        in.position(4);
+        int end = in.limit();
+        in.limit(4 + length);
+        m.put(in);
+        in.limit(end);
+        in.compact();
+        return m.flip();
+    }
+
+    // waits until every one of the links has a message in and all they had to send is out,
+    // and returns the messages in the same order. the links have to share the selector
+    static ByteBuffer[] await(Selector selector, Link... links) throws IOException {
+        ByteBuffer[] got = new ByteBuffer[links.length];
+        while (true) {
+            boolean done = true;
+            for (int i = 0; i < links.length; i++) {
+                if (!links[i].flush()) {
+                    done = false;
+                }
+                if (got[i] == null) {
+                    got[i] = links[i].receive();
+                }
+                if (got[i] == null) {
+                    done = false;
+                }
+            }
+            if (done) {
+                return got;
+            }
+            selector.select();
+            selector.selectedKeys().clear();
+        }
+    }
+
+    // like await for one link, and the message has to be of that type
+    static ByteBuffer expect(Selector selector, Link link, int type) throws IOException {
+        ByteBuffer m = await(selector, link)[0];
+        int got = m.getInt();
+        if (got != type) {
+            throw new IOException("expected message " + type + " from " + link.channel.getRemoteAddress() + ", got " + got);
+        }
+        return m;
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+}
@@ -1,8 +1,6 @@
 package com.company;
 
-import javafx.animation.Animation;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
@@ -10,46 +8,63 @@ import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.ColorPicker;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Slider;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.MouseButton;
 import javafx.scene.layout.AnchorPane;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
 import javafx.stage.Stage;
-import javafx.util.Duration;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
-import static com.company.Main.Material.*;
+import static com.company.Material.*;
 
 public class Main extends Application {
 
-    enum Material {
-        SAND(Color.SANDYBROWN), ROCK(Color.GRAY), WATER(Color.BLUE), EMPTY(Color.BLACK),
-        WOOD(Color.SADDLEBROWN), ACID(Color.LIMEGREEN), LAVA(Color.ORANGERED), STEAM(Color.LIGHTGRAY),
-        RAIN(Color.BLUE), SNOW(Color.WHITE);
-
-        private final Color color;
-
-        Material(Color color) {
-            this.color = color;
-        }
-    }
-
     static final int WIDTH = 300;
     static final int HEIGHT = 300;
+    // the board can be bigger than the window: the wheel zooms, dragging with the right button pans,
+    // arrows / +- do the same from the keyboard and 0 goes back to 1:1
+    static final int BOARD_WIDTH = 600;
+    static final int BOARD_HEIGHT = 600;
+    // the board is saved here on exit and picked up again on the next start
+    static final Path SAVE = Paths.get("board.snap");
+    // every session is recorded here (overwriting the last one), play it back with Replay
+    static final Path SESSION = Paths.get("session.rec");
+    // how fast the simulation runs at the start, whatever the display does; the speed slider changes it
+    static final double TICKS_PER_SECOND = 1000.0 / 30;
 
     Canvas canvas = new Canvas(WIDTH, HEIGHT);
     GraphicsContext gc = canvas.getGraphicsContext2D();
 
-    Material[][] board = new Material[WIDTH][HEIGHT];
+    // seeded so that the recorded session replays to the same board
+    SimulationEngine engine = new SimulationEngine(BOARD_WIDTH, BOARD_HEIGHT, true, System.nanoTime());
+    // owns the engine once started, the UI only talks to it through submit() and poll()
+    SimulationThread simulation = new SimulationThread(engine, TICKS_PER_SECOND);
+    Viewport viewport = new Viewport(WIDTH, HEIGHT, BOARD_WIDTH, BOARD_HEIGHT);
+    WritableImage image = new WritableImage(WIDTH, HEIGHT);
     Material current = SAND;
     List<Material> materialList = new ArrayList<>();
 
     int brushSize = 5;
     double density = 0.6;
-    boolean isPressed = false;
+    // metrics overlay, toggled with H
+    boolean hud;
+    // B: clicks throw cells in the air instead of painting, until a material is picked again
+    boolean blast;
+    // where the last drag event was on the board, strokes go from there to the next one so fast drags leave no gaps
+    int lastX;
+    int lastY;
+    // where the last panning drag event was on the screen
+    double panX;
+    double panY;
 
     public static void main(String[] args) {
         launch(args);
@@ -59,11 +74,15 @@ public class Main extends Application {
     public void start(Stage primaryStage) throws Exception {
         AnchorPane root = new AnchorPane();
         root.getChildren().add(canvas);
-        for (int r = HEIGHT - 1; r >= 0; r--) {
-            for (int c = 0; c < WIDTH; c++) {
-                board[r][c] = EMPTY;
+        engine.fill(EMPTY);
+        if (Files.exists(SAVE)) {
+            try {
+                engine.load(SAVE);
+            } catch (IOException e) {
+                System.err.println("couldn't load " + SAVE + ": " + e.getMessage());
             }
         }
+        engine.record(SESSION);
 
         materialList.add(SAND);
         materialList.add(WATER);
@@ -73,8 +92,9 @@ public class Main extends Application {
         materialList.add(EMPTY);
         materialList.add(ACID);
         materialList.add(STEAM);
-      //  materialList.add(RAIN);
+        materialList.add(RAIN);
         materialList.add(SNOW);
+        materialList.add(FIRE);
 
 
 
@@ -97,6 +117,16 @@ public class Main extends Application {
         densitySlider.setTranslateY(40);
         root.getChildren().add(densitySlider);
 
+        // ticks per second, however fast the display runs
+        Slider speedSlider = new Slider(5, 200, TICKS_PER_SECOND);
+        speedSlider.setOnMouseClicked(event -> {
+            simulation.rate(speedSlider.getValue());
+        });
+        speedSlider.setMaxSize(WIDTH / 4, HEIGHT / 10);
+        speedSlider.setTranslateX(WIDTH - WIDTH / 4 - 10);
+        speedSlider.setTranslateY(10);
+        root.getChildren().add(speedSlider);
+
         Rectangle currentMaterial = new Rectangle(WIDTH / 10, HEIGHT / 10, Color.SANDYBROWN);
         currentMaterial.setStroke(Color.WHITE);
         currentMaterial.setTranslateX(10);
@@ -112,7 +142,8 @@ public class Main extends Application {
 
         chooseMaterials.setOnAction(event -> {
             current = chooseMaterials.getValue();
-            currentMaterial.setFill(chooseMaterials.getValue().color);
+            blast = false;
+            currentMaterial.setFill(color(chooseMaterials.getValue()));
         });
 
         Scene scene = new Scene(root, WIDTH, HEIGHT);
@@ -121,461 +152,185 @@ public class Main extends Application {
         scene.setOnKeyPressed(event -> {
             if (event.getCode() == KeyCode.S) {
                 current = SAND;
+                blast = false;
                 currentMaterial.setFill(Color.SANDYBROWN);
             }
             if (event.getCode() == KeyCode.E) {
                 current = EMPTY;
+                blast = false;
                 currentMaterial.setFill(Color.BLACK);
             }
             if (event.getCode() == KeyCode.R) {
                 current = ROCK;
+                blast = false;
                 currentMaterial.setFill(Color.GRAY);
             }
             if (event.getCode() == KeyCode.W) {
                 current = WATER;
+                blast = false;
                 currentMaterial.setFill(Color.BLUE);
             }
             if (event.getCode() == KeyCode.L) {
                 current = LAVA;
+                blast = false;
                 currentMaterial.setFill(Color.ORANGERED);
             }
             if (event.getCode() == KeyCode.A) {
                 current = STEAM;
+                blast = false;
                 currentMaterial.setFill(Color.LIGHTGRAY);
             }
             if (event.getCode() == KeyCode.T) {
                 current = WOOD;
+                blast = false;
                 currentMaterial.setFill(Color.SADDLEBROWN);
             }
             if (event.getCode() == KeyCode.D) {
                 current = ACID;
+                blast = false;
                 currentMaterial.setFill(Color.LIMEGREEN);
             }
+            if (event.getCode() == KeyCode.F) {
+                current = FIRE;
+                blast = false;
+                currentMaterial.setFill(Color.ORANGE);
+            }
+            if (event.getCode() == KeyCode.B) {
+                blast = !blast;
+                currentMaterial.setFill(blast ? Color.WHITE : color(current));
+            }
+            if (event.getCode() == KeyCode.H) {
+                hud = !hud;
+                // nothing gets measured while the HUD is off (unless turned on again over JMX)
+                engine.metrics.setEnabled(hud);
+            }
+            if (event.getCode() == KeyCode.LEFT) {
+                viewport.pan(WIDTH / 8.0, 0);
+            }
+            if (event.getCode() == KeyCode.RIGHT) {
+                viewport.pan(-WIDTH / 8.0, 0);
+            }
+            if (event.getCode() == KeyCode.UP) {
+                viewport.pan(0, HEIGHT / 8.0);
+            }
+            if (event.getCode() == KeyCode.DOWN) {
+                viewport.pan(0, -HEIGHT / 8.0);
+            }
+            if (event.getCode() == KeyCode.PLUS || event.getCode() == KeyCode.EQUALS) {
+                viewport.zoom(2, WIDTH / 2.0, HEIGHT / 2.0);
+            }
+            if (event.getCode() == KeyCode.MINUS) {
+                viewport.zoom(0.5, WIDTH / 2.0, HEIGHT / 2.0);
+            }
+            if (event.getCode() == KeyCode.DIGIT0) {
+                viewport.reset();
+            }
         });
 
-        // dragging/clicking to draw
-        scene.setOnMouseClicked(event -> {
+        // dragging/clicking to draw, dragging with the right button to pan
+        scene.setOnMousePressed(event -> {
             if (event.getButton() == MouseButton.PRIMARY) {
-                isPressed = true;
-                int x = (int) event.getX();
-                int y = (int) event.getY();
-                for (int r = -brushSize; r < brushSize; r++) {
-                    for (int c = -brushSize; c < brushSize; c++) {
-                        if (c + y >= 0 && x + r >= 0
-                                && Math.random() < density
-                                && c + y <= HEIGHT && x + r <= WIDTH) {
-                            board[y + c][x + r] = current;
-                        }
-                    }
+                lastX = viewport.boardX(event.getX());
+                lastY = viewport.boardY(event.getY());
+                if (blast) {
+                    engine.submit(Stroke.blast(lastX, lastY, brushSize * 4, density));
+                } else {
+                    paint(lastX, lastY);
                 }
+            } else if (event.getButton() == MouseButton.SECONDARY) {
+                panX = event.getX();
+                panY = event.getY();
             }
         });
         scene.setOnMouseDragged(event -> {
-            if (event.getButton() == MouseButton.PRIMARY) {
-                isPressed = true;
-                int x = (int) event.getX();
-                int y = (int) event.getY();
-                for (int r = -brushSize; r < brushSize; r++) {
-                    for (int c = -brushSize; c < brushSize; c++) {
-                        if (c + y >= 0 && x + r >= 0
-                                && Math.random() < density
-                                && c + y <= HEIGHT && x + r <= WIDTH) {
-                            board[y + c][x + r] = current;
-                        }
-                    }
-                }
+            if (event.getButton() == MouseButton.PRIMARY && !blast) {
+                paint(viewport.boardX(event.getX()), viewport.boardY(event.getY()));
+            } else if (event.getButton() == MouseButton.SECONDARY) {
+                viewport.pan(event.getX() - panX, event.getY() - panY);
+                panX = event.getX();
+                panY = event.getY();
             }
         });
-        scene.setOnMouseDragReleased(event -> {
-            isPressed = false;
+        scene.setOnScroll(event -> {
+            if (event.getDeltaY() != 0) {
+                viewport.zoom(event.getDeltaY() > 0 ? 1.25 : 0.8, event.getX(), event.getY());
+            }
         });
 
         primaryStage.setScene(scene);
         primaryStage.show();
 
-        Timeline timeline = new Timeline(new KeyFrame(Duration.millis(30), event -> {
-            iterate();
-            draw();
-        }));
-        timeline.setCycleCount(Animation.INDEFINITE);
-        timeline.play();
-    }
-
-    private void draw() {
-        if (isPressed) {
-            for (int r = HEIGHT - 1; r >= 0; r--) {
-                for (int c = 0; c < WIDTH; c++) {
-                    if (board[r][c] == EMPTY) {
-                        gc.setFill(Color.BLACK);
-                    }
-                    else if (board[r][c] == SAND) {
-                        gc.setFill(Color.SANDYBROWN);
-                    }
-                    else if (board[r][c] == ROCK) {
-                        gc.setFill(Color.GRAY);
-                    }
-                    else if (board[r][c] == WATER) {
-                        gc.setFill(Color.BLUE);
-                    }
-                    else if (board[r][c] == LAVA) {
-                        gc.setFill(Color.ORANGERED);
-                    }
-                    else if (board[r][c] == STEAM) {
-                        gc.setFill(Color.LIGHTGRAY);
-                    }
-                    else if (board[r][c] == WOOD) {
-                        gc.setFill(Color.SADDLEBROWN);
-                    }
-                    else if (board[r][c] == ACID){
-                        gc.setFill(Color.LIMEGREEN);
-                    }
-                    else if (board[r][c] == RAIN){
-                        gc.setFill(Color.BLUE);
-                    }
-                    else if (board[r][c] == SNOW){
-                        gc.setFill(Color.WHITE);
-                    }
-                    gc.fillRect(c, r, 1, 1);
-                }
+        engine.metrics.register();
+        simulation.start();
+        // draws at whatever rate the display runs, with the newest tick there is
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                // panning and zooming redraw even when there's no new tick
+                draw(simulation.poll());
             }
-        }
-
+        }.start();
     }
 
-    private void iterate() {
-        for (int r = HEIGHT - 1; r >= 0; r--) {
-            for (int c = 0; c < WIDTH; c++) {
-                // rock or empty
-                if (board[r][c] == EMPTY || board[r][c] == ROCK) {
-                    continue;
-                }
-                //LAVA
-                else if (board[r][c] == LAVA) {
-                    double LR = Math.random() * 1;
-                    double willHarden = Math.random() * 1;
-                    if (r + 1 < HEIGHT && board[r + 1][c] == EMPTY) {
-                        board[r + 1][c] = LAVA;
-                        board[r][c] = EMPTY;
-                    } else if (r + 1 < HEIGHT && c - 1 >= 0 && board[r + 1][c - 1] == EMPTY) {
-                        board[r + 1][c - 1] = LAVA;
-                        board[r][c] = EMPTY;
-                    } else if (r + 1 < HEIGHT && c + 1 < WIDTH && board[r + 1][c + 1] == EMPTY) {
-                        board[r + 1][c + 1] = LAVA;
-                        board[r][c] = EMPTY;
-                    } else if (c - 1 >= 0 && board[r][c - 1] == EMPTY && LR > 0 && LR < 0.5) {
-                        board[r][c - 1] = LAVA;
-                        board[r][c] = EMPTY;
-                    } else if (c + 1 < WIDTH && board[r][c + 1] == EMPTY && LR >= 0.5) {
-                        board[r][c + 1] = LAVA;
-                        board[r][c] = EMPTY;
-                    }
-                    // if lava is next to it, stop
-                    else if (c - 1 >= 0 && board[r][c - 1] == LAVA) {
-                        board[r][c] = LAVA;
-                    }
-                    else if (c + 1 < WIDTH && board[r][c + 1] == LAVA) {
-                        board[r][c] = LAVA;
-                    }
-                    //rocc
-                    else if (r - 1 > 0 && board[r - 1][c] == EMPTY && willHarden < 0.9){
-                        board[r][c] = ROCK;
-                    }
-                    // touching water
-                    if (c - 1 >= 0 && board[r][c - 1] == WATER) {
-                        board[r][c] = ROCK;
-                    }
-                    else if (c + 1 < WIDTH && board[r][c + 1] == WATER) {
-                        board[r][c] = ROCK;
-                    }
-                    else if (r - 1 >= 0 && board[r - 1][c] == WATER) {
-                        board[r][c] = ROCK;
-                    }
-                    else if (r + 1 < HEIGHT && board[r + 1][c] == WATER) {
-                        board[r][c] = ROCK;
-                    }
+    // a stroke from the last mouse position to (x, y), painted before the next tick
+    private void paint(int x, int y) {
+        engine.submit(new Stroke(lastX, lastY, x, y, brushSize, density, current));
+        lastX = x;
+        lastY = y;
+    }
 
-                }
-                //WATER
-                else if (board[r][c] == WATER) {
-                    double LR = Math.random() * 1;
-                    //basic physics
-                    if (r + 1 < HEIGHT && board[r + 1][c] == EMPTY) {
-                        board[r + 1][c] = WATER;
-                        board[r][c] = EMPTY;
-                    } else if (r + 1 < HEIGHT && c - 1 >= 0 && board[r + 1][c - 1] == EMPTY) {
-                        board[r + 1][c - 1] = WATER;
-                        board[r][c] = EMPTY;
-                    } else if (r + 1 < HEIGHT && c + 1 < WIDTH && board[r + 1][c + 1] == EMPTY) {
-                        board[r + 1][c + 1] = WATER;
-                        board[r][c] = EMPTY;
-                    } else if (c - 1 >= 0 && board[r][c - 1] == EMPTY && LR > 0 && LR < 0.5) {
-                        board[r][c - 1] = WATER;
-                        board[r][c] = EMPTY;
-                    } else if (c + 1 < WIDTH && board[r][c + 1] == EMPTY && LR >= 0.5) {
-                        board[r][c + 1] = WATER;
-                        board[r][c] = EMPTY;
-                    } else if (c - 1 >= 0 && board[r][c - 1] == WATER) {
-                        board[r][c] = WATER;
-                    } else if (c + 1 < WIDTH && board[r][c + 1] == WATER) {
-                        board[r][c] = WATER;
-                    }
-
-                    // if touching lava, rockers
-                    if (c - 1 >= 0 && board[r][c - 1] == LAVA) {
-                        board[r][c] = ROCK;
-                    }
-                    else if (c + 1 < WIDTH && board[r][c + 1] == LAVA) {
-                        board[r][c] = ROCK;
-                    }
-                    else if (r - 1 >= 0 && board[r - 1][c] == LAVA) {
-                        board[r][c] = ROCK;
-                    }
-                    else if (r + 1 < HEIGHT && board[r + 1][c] == LAVA) {
-                        board[r][c] = ROCK;
-                    }
-
-                   /* if (c + 1 < WIDTH && board[r][c + 1] == WATER && board[r][c-1]==WATER && board[r+1][c] == EMPTY){
-                        board[r+1][c] = WATER;
-                    }*/
-
-                /*    else if (c -1 >= 0 && board[r][c - 1] == EMPTY) {
-                        board[r][c + 1]= WATER;
-                        // board[r][c-1] = WATER;
-                        board[r-1][c] = EMPTY;
-                        board[r][c] = EMPTY;
-                    }*/
+    @Override
+    public void stop() throws Exception {
+        simulation.stop();
+        engine.stopRecording();
+        engine.save(SAVE);
+    }
 
-                }
-                /* //RAIN
-                else if (board[r][c] == RAIN){
-                    double LR = Math.random() * 1;
-                    if (r + 1 < HEIGHT && c - 1 >= 0 && board[r + 1][c - 1] == EMPTY && LR < 0.5) {
-                        board[r + 1][c - 1] = RAIN;
-                        board[r][c] = EMPTY;
-                    }
-                    else if (r + 1 < HEIGHT && c + 1 < WIDTH && board[r + 1][c + 1] == EMPTY && LR >= 0.5) {
-                        board[r + 1][c + 1] = RAIN;
-                        board[r][c] = EMPTY;}
-                    else if (c - 1 >= 0 && board[r][c - 1] == EMPTY && LR > 0 && LR < 0.5) {
-                        board[r][c - 1] = RAIN;
-                        board[r][c] = EMPTY;
-                    } else if (c + 1 < WIDTH && board[r][c + 1] == EMPTY && LR >= 0.5) {
-                        board[r][c + 1] = RAIN;
-                        board[r][c] = EMPTY;
-                    } else if (c - 1 >= 0 && board[r][c - 1] == RAIN) {
-                        board[r][c] = RAIN;
-                    } else if (c + 1 < WIDTH && board[r][c + 1] == RAIN) {
-                        board[r][c] = RAIN;
-                    }
-                }*/
-                //SNOW
-                else if (board[r][c] == SNOW){
-                    double LR = Math.random() * 1;
-                    if (r + 1 < HEIGHT && c - 1 >= 0 && board[r + 1][c - 1] == EMPTY && LR < 0.5) {
-                        board[r + 1][c - 1] = SNOW;
-                        board[r][c] = EMPTY;
-                    }
-                    else if (r + 1 < HEIGHT && c + 1 < WIDTH && board[r + 1][c + 1] == EMPTY && LR >= 0.5) {
-                        board[r + 1][c + 1] = SNOW;
-                        board[r][c] = EMPTY;}
-                    else if (c - 1 >= 0 && board[r][c - 1] == EMPTY && LR > 0 && LR < 0.5) {
-                        board[r][c - 1] = SNOW;
-                        board[r][c] = EMPTY;
-                    } else if (c + 1 < WIDTH && board[r][c + 1] == EMPTY && LR >= 0.5) {
-                        board[r][c + 1] = SNOW;
-                        board[r][c] = EMPTY;
-                    } /*else if (c - 1 >= 0 && board[r][c - 1] == SNOW) {
-                        board[r][c] = SNOW;
-                    } else if (c + 1 < WIDTH && board[r][c + 1] == SNOW) {
-                        board[r][c] = SNOW;
-                    }*/
-                    //TURN into water            aAAAAAAAAAAAAA
-                    else if (r + 1 < HEIGHT && c - 1 >= 0 && board[r + 1][c - 1] == WATER){
-                        board[r][c] = WATER;
-                    }
-                    else if (r + 1 < HEIGHT && c + 1 < WIDTH && board[r + 1][c + 1] == WATER) {
-                        board[r][c] = WATER;}
-                    else if (r - 1 >= 0 && c - 1 >= 0 && board[r-1][c] == WATER) {
-                        board[r][c] = WATER;}
-                    else if (r + 1 < HEIGHT && c - 1 >= 0 && board[r+1][c] == WATER) {
-                        board[r][c] = WATER;}
-
-                    //touch lava TURN INTO WATR
-                    else if (r + 1 < HEIGHT && c - 1 >= 0 && board[r + 1][c - 1] == LAVA){
-                        board[r][c] = WATER;
-                    }
-                    else if (r + 1 < HEIGHT && c + 1 < WIDTH && board[r + 1][c + 1] == LAVA) {
-                        board[r][c] = WATER;}
-                    else if (r + 1 < HEIGHT && c - 1 >= 0 && board[r][c - 1] == LAVA) {
-                        board[r][c] = WATER;}
-                }
-                //SAND
-                else if (board[r][c] == SAND) {                        // SAND
-                    if (r + 1 < HEIGHT && board[r + 1][c] == EMPTY) {
-                        board[r + 1][c] = SAND;
-                        board[r][c] = EMPTY;
-                    } else if (r + 1 < HEIGHT && c - 1 >= 0 && board[r + 1][c - 1] == EMPTY) {
-                        board[r + 1][c - 1] = SAND;
-                        board[r][c] = EMPTY;
-                    } else if (r + 1 < HEIGHT && c + 1 < WIDTH && board[r + 1][c + 1] == EMPTY) {
-                        board[r + 1][c + 1] = SAND;
-                        board[r][c] = EMPTY;
-                    }
-                    double LR = Math.random() * 1;
-                    if (r + 1 < HEIGHT && board[r + 1][c] == WATER) {
-                        board[r + 1][c] = SAND;
-                        board[r][c] = WATER;
-                    }
-                    //1
-                    else if (r + 1 < HEIGHT && c - 1 >= 0 && board[r + 1][c - 1] == WATER && LR >= 0 && LR < 0.2) {
-                        board[r + 1][c - 1] = SAND;
-                        board[r][c] = WATER;
-                    }
-                    //2
-                    else if (r + 1 < HEIGHT && c + 1 < WIDTH && board[r + 1][c + 1] == WATER && LR >= 0.2 && LR < 0.4) {                     // sand under water needs work
-                        board[r + 1][c + 1] = SAND;
-                        board[r][c] = WATER;
-                    }
-                    //3
-                    else if (c - 1 >= 0 && board[r][c - 1] == WATER && LR >= 0.4 && LR < 0.75) {
-                        board[r][c - 1] = SAND;
-                        board[r][c] = WATER;
-                    }
-                    //4
-                    else if (c + 1 < WIDTH && board[r][c + 1] == WATER && LR >= 0.75 && LR <= 1 ) {
-                        board[r][c + 1] = SAND;
-                        board[r][c] = WATER;
-                    }
-                }
-                //ACID
-                else if (board[r][c]==ACID){
-                    double LR = Math.random() * 1;
-                    //basic physics
-                    if (r + 1 < HEIGHT && board[r + 1][c] == EMPTY) {
-                        board[r + 1][c] = ACID;
-                        board[r][c] = EMPTY;
-                    }
-                    else if (r + 1 < HEIGHT && c - 1 >= 0 && board[r + 1][c - 1] == EMPTY) {
-                        board[r + 1][c - 1] = ACID;
-                        board[r][c] = EMPTY;
-                    }
-                    else if (r + 1 < HEIGHT && c + 1 < WIDTH && board[r + 1][c + 1] == EMPTY) {
-                        board[r + 1][c + 1] = ACID;
-                        board[r][c] = EMPTY;
-                    }
-                    else if (c - 1 >= 0 && board[r][c - 1] == EMPTY && LR > 0 && LR < 0.5) {
-                        board[r][c - 1] = ACID;
-                        board[r][c] = EMPTY;
-                    }
-                    else if (c + 1 < WIDTH && board[r][c + 1] == EMPTY && LR >= 0.5) {
-                        board[r][c + 1] = ACID;
-                        board[r][c] = EMPTY;
-                    }
-                    else if (c - 1 >= 0 && board[r][c - 1] == ACID) {
-                        board[r][c] = ACID;
-                    }
-                    else if (c + 1 < WIDTH && board[r][c + 1] == ACID) {
-                        board[r][c] = ACID;
-                    }
-                    // om nom nom
-                    if ((c - 1 >= 0 && board[r][c - 1] != EMPTY) && board[r][c - 1] != ACID){
-                        board[r][c-1] = EMPTY;
-                    }
-                    else if ((c + 1 < WIDTH && board[r][c + 1] != EMPTY) && board[r][c + 1] != ACID) {
-                        board[r][c+1] = EMPTY;
-                    }
-                    else if ((r - 1 >= 0 && board[r - 1][c] != EMPTY) && board[r - 1][c] != ACID) {
-                        board[r-1][c] = EMPTY;
-                      //  board[r][c] = ACID;
-                    }
-                    else if ((r + 1 < HEIGHT && board[r + 1][c] != EMPTY) && board[r + 1][c] != ACID) {
-                        board[r+1][c] = EMPTY;
-                      //  board[r][c] = ACID;
-                    }
-                    if (r == HEIGHT-1){
-                        board[r][c] = EMPTY;
-                    }
-                }
-                //WOOD
-                else if (board[r][c] == WOOD) {
-                    double LR = Math.random() * 1;
-                    double LR2 = Math.random() * 1;
-                    double LR3 = Math.random() * 1;
-                    if (c - 1 >= 0 && board[r][c - 1] == LAVA && LR < 0.5) {
-                        board[r][c] = EMPTY;
-                    }
-                    else if (c - 1 >= 0 && board[r][c - 1] == LAVA && LR >= 0.5) {
-                        continue;
-                    }
-                    else if (c + 1 < WIDTH && board[r][c + 1] == LAVA && LR2 < 0.5) {
-                        board[r][c] = EMPTY;
-                    }
-                    else if (c + 1 < WIDTH && board[r][c + 1] == LAVA && LR2 >= 0.5) {
-                        continue;
-                    }
-                    else if (r + 1 < HEIGHT && board[r + 1][c] == LAVA && LR3 < 0.25) {
-                        board[r][c] = LAVA;
-                        board[r+1][c] = EMPTY;
-                    }
-                    else if (r + 1 < HEIGHT && board[r + 1][c] == LAVA && LR3 >= 0.25 && LR3 < 0.5) {
-                        continue;
-                    }
-                    else if (r - 1 >= 0 && board[r - 1][c] == LAVA && LR3 >= 0.5 && LR3 < 0.75) {
-                        board[r][c] = LAVA;
-                        board[r-1][c] = EMPTY;
-                    }
-                    else if (r - 1 >= 0 && board[r - 1][c] == LAVA && LR3 >= 0.75 && LR3 <=1) {
-                        continue;
-                    }
-                }
-            }
+    // only the part of the screen that changed since the last frame gets uploaded. frame can be null
+    private void draw(SimulationThread.Frame frame) {
+        Metrics metrics = engine.metrics;
+        boolean measure = metrics.enabled();
+        long start = measure ? System.nanoTime() : 0;
+        if (frame != null) {
+            viewport.update(frame.cells, frame.changed, frame.tick);
         }
-        // up ^^^^
-        for (int r = 0; r < HEIGHT; r++) {
-            for (int c = 0; c < WIDTH; c++) {
-                 if (board[r][c]==STEAM){
-                     double LR = Math.random() * 1;
-                     double LR2 = Math.random() * 1;
-                    if (r - 1 >= 0 && c - 1 >= 0 && board[r - 1][c - 1] == EMPTY && LR < 0.5) {
-                        board[r - 1][c - 1] = STEAM;
-                        board[r][c] = EMPTY;
-                    }
-                    else if (r - 1 >= 0 && c + 1 < WIDTH && board[r - 1][c + 1] == EMPTY && LR >= 0.5) {
-                        board[r - 1][c + 1] = STEAM;
-                        board[r][c] = EMPTY;
-                    }
-                    else if (c - 1 >= 0 && board[r][c - 1] == EMPTY && LR > 0 && LR2 < 0.5) {
-                        board[r][c - 1] = STEAM;
-                        board[r][c] = EMPTY;
-                    }
-                    else if (c + 1 < WIDTH && board[r][c + 1] == EMPTY && LR2 >= 0.5) {
-                        board[r][c + 1] = STEAM;
-                        board[r][c] = EMPTY;
-                    }
-                    else if (c - 1 >= 0 && board[r][c - 1] == STEAM) {
-                        board[r][c] = STEAM;
-                    }
-                    else if (c + 1 < WIDTH && board[r][c + 1] == STEAM) {
-                        board[r][c] = STEAM;
-                    }
-
-                    // LAVA
-                    if (r - 1 >= 0 && board[r + 1][c] == LAVA) {
-                        board[r - 1][c] = STEAM;
-                        board[r][c] = LAVA;
-                    }
-                    else if (r - 1 >= 0 && c - 1 >= 0 && board[r - 1][c - 1] == LAVA) {
-                        board[r - 1][c - 1] = STEAM;
-                        board[r][c] = LAVA;
-                    }
-                    else if (r - 1 >= 0 && c + 1 < WIDTH && board[r - 1][c + 1] == LAVA) {
-                        board[r - 1][c + 1] = STEAM;
-                        board[r][c] = LAVA;
-                    }
-                }
-            }
+        boolean changed = viewport.render();
+        if (frame == null && !changed) {
+            return;
+        }
+        long rendered = measure ? System.nanoTime() : 0;
+        if (changed) {
+            int x = viewport.dirtyMinC;
+            int y = viewport.dirtyMinR;
+            image.getPixelWriter().setPixels(x, y, viewport.dirtyMaxC - x + 1, viewport.dirtyMaxR - y + 1,
+                    PixelFormat.getIntArgbPreInstance(), viewport.pixels, y * WIDTH + x, WIDTH);
+        }
+        if (changed || hud) {
+            gc.drawImage(image, 0, 0);
+        }
+        if (measure) {
+            metrics.render.record(rendered - start);
+            metrics.upload.record(System.nanoTime() - rendered);
+        }
+        if (hud) {
+            drawHud(metrics.hud());
         }
     }
+
+    private void drawHud(String[] lines) {
+        int y = HEIGHT - 14 * lines.length - 4;
+        gc.setFill(Color.rgb(0, 0, 0, 0.6));
+        gc.fillRect(0, y, WIDTH, HEIGHT - y);
+        gc.setFill(Color.WHITE);
+        for (String line : lines) {
+            y += 14;
+            gc.fillText(line, 4, y);
+        }
+    }
+
+    static Color color(Material m) {
+        return Color.rgb((m.argb >> 16) & 0xFF, (m.argb >> 8) & 0xFF, m.argb & 0xFF);
+    }
 }
 
 
@@ -0,0 +1,41 @@
+package com.company;
+
+import static com.company.Movement.*;
+
+// EMPTY has to stay first, a fresh byte[] grid is all zeroes = all empty.
+// new materials go at the end, ids are what snapshots and recordings store
+// colors are packed ARGB so the engine doesn't need JavaFX, see Main.color() for the UI side
+//
+// density decides what sinks through what (heavier falls through lighter, lighter rises through heavier),
+// reactions between materials and what heat does to them are in MaterialTable
+enum Material {
+    EMPTY(0xFF000000, STATIC, 1),
+    SAND(0xFFF4A460, POWDER, 15),
+    ROCK(0xFF808080, STATIC, 100),
+    WATER(0xFF0000FF, LIQUID, 10),
+    WOOD(0xFF8B4513, STATIC, 100),
+    ACID(0xFF32CD32, LIQUID, 11),
+    LAVA(0xFFFF4500, LIQUID, 12),
+    STEAM(0xFFD3D3D3, GAS, 0),
+    RAIN(0xFF0000FF, LIQUID, 10),
+    SNOW(0xFFFFFFFF, POWDER, 5),
+    FIRE(0xFFFFA500, STATIC, 0);
+
+    private static final Material[] BY_ID = values();
+
+    final int argb;
+    final byte id;
+    final Movement movement;
+    final int density;
+
+    Material(int argb, Movement movement, int density) {
+        this.argb = argb;
+        this.id = (byte) ordinal();
+        this.movement = movement;
+        this.density = density;
+    }
+
+    static Material byId(byte id) {
+        return BY_ID[id];
+    }
+}
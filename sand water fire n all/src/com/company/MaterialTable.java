@@ -0,0 +1,172 @@
+package com.company;
+
+import java.util.Arrays;
+
+import static com.company.Material.*;
+
+// what every material does, written down once and compiled into flat lookup tables
+// so the simulation never has to ask "is this lava?" in its inner loop.
+// pair tables are indexed [self * N + other].
+//
+// adding a material = one line in Material, plus a react(...) line here for each reaction
+// and a heat(...) line in THERMAL
+final class MaterialTable {
+    static final int N = Cell.COUNT;
+
+    static final byte STATIC = (byte) Movement.STATIC.ordinal();
+    static final byte POWDER = (byte) Movement.POWDER.ordinal();
+    static final byte LIQUID = (byte) Movement.LIQUID.ordinal();
+    static final byte GAS = (byte) Movement.GAS.ordinal();
+
+    // reaction chances are out of CERTAIN so they can be checked against 16 random bits
+    static final int CERTAIN = 1 << 16;
+
+    // degrees, what everything drifts back to when nothing heats or cools it
+    static final float AMBIENT = 20;
+
+    // without a HeatField, temperature is faked with reactions between neighbours
+    static final MaterialTable DEFAULT = common()
+            .react(LAVA, WATER, ROCK, ROCK, 1)
+            .react(WATER, LAVA, ROCK, ROCK, 1)
+            // lava crusts over where it touches air
+            .react(LAVA, EMPTY, ROCK, EMPTY, 0.05)
+            .react(SNOW, WATER, WATER, WATER, 1)
+            .react(SNOW, LAVA, WATER, LAVA, 1)
+            .react(WOOD, LAVA, EMPTY, LAVA, 0.5)
+            .react(FIRE, WOOD, FIRE, FIRE, 0.1)
+            .react(FIRE, EMPTY, EMPTY, EMPTY, 0.05)
+            .react(FIRE, WATER, EMPTY, WATER, 1)
+            .compile();
+
+    // with a HeatField: no faked reactions, melting, freezing, boiling and burning all come from temperature.
+    // heat(material, conductivity, rest, pull, start): see the arrays below
+    static final MaterialTable THERMAL = common()
+            // a fire keeps itself hot while it burns, and goes out on its own next to air
+            .react(FIRE, EMPTY, EMPTY, EMPTY, 0.02)
+            .heat(EMPTY, 0.001, AMBIENT, 0.02, AMBIENT)
+            .heat(SAND, 0.04, AMBIENT, 0.002, Float.NaN)
+            .heat(ROCK, 0.05, AMBIENT, 0.002, Float.NaN)
+            .heat(WATER, 0.2, AMBIENT, 0.002, Float.NaN)
+            .heat(WOOD, 0.05, AMBIENT, 0.002, Float.NaN)
+            .heat(ACID, 0.15, AMBIENT, 0.002, Float.NaN)
+            // a pool stays molten, a drop out in the air crusts over
+            .heat(LAVA, 0.15, 1200, 0.01, 1200)
+            .heat(STEAM, 0.02, AMBIENT, 0.01, 110)
+            .heat(RAIN, 0.2, AMBIENT, 0.002, Float.NaN)
+            // snow keeps itself cold, it only melts where something warmer than air touches it
+            .heat(SNOW, 0.1, -30, 0.05, -30)
+            .heat(FIRE, 0.15, 900, 0.2, 900)
+            .melts(SNOW, 0, WATER)
+            .melts(WATER, 100, STEAM)
+            .melts(RAIN, 100, STEAM)
+            .melts(WOOD, 250, FIRE)
+            .freezes(WATER, -1, SNOW)
+            .freezes(RAIN, -1, SNOW)
+            .freezes(STEAM, 50, WATER)
+            .freezes(LAVA, 700, ROCK)
+            // put out
+            .freezes(FIRE, 300, EMPTY)
+            .compile();
+
+    final byte[] movement = new byte[N];
+    // anything that moves or reacts; EMPTY and ROCK are not, so they're skipped right away
+    final boolean[] active = new boolean[N];
+    // self may swap with other when falling down into it / rising up into it
+    final boolean[] sinks = new boolean[N * N];
+    final boolean[] rises = new boolean[N * N];
+    // self next to other turns into (reactSelf, reactOther) with reactChance / CERTAIN, 0 = nothing happens
+    final byte[] reactSelf = new byte[N * N];
+    final byte[] reactOther = new byte[N * N];
+    final int[] reactChance = new int[N * N];
+
+    // for HeatField. conduct: how much of the difference to a neighbour moves per tick (0..0.2, between two
+    // materials the geometric mean of theirs), rest / pull: the temperature it drifts to by itself and the fraction
+    // of the way it goes per tick, start: what a cell turning into it starts at (NaN: keeps its temperature)
+    final float[] conduct = new float[N];
+    final float[] rest = new float[N];
+    final float[] pull = new float[N];
+    final float[] start = new float[N];
+    // above meltAt it turns into meltTo, below freezeAt into freezeTo
+    final float[] meltAt = new float[N];
+    final byte[] meltTo = new byte[N];
+    final float[] freezeAt = new float[N];
+    final byte[] freezeTo = new byte[N];
+
+    MaterialTable() {
+        Arrays.fill(rest, AMBIENT);
+        Arrays.fill(start, Float.NaN);
+        Arrays.fill(meltAt, Float.POSITIVE_INFINITY);
+        Arrays.fill(freezeAt, Float.NEGATIVE_INFINITY);
+    }
+
+    // the reactions that have nothing to do with temperature
+    private static MaterialTable common() {
+        return new MaterialTable()
+                .react(RAIN, WATER, WATER, WATER, 1)
+                .dissolves(ACID, 1);
+    }
+
+    MaterialTable react(Material self, Material other, Material selfBecomes, Material otherBecomes, double chance) {
+        int k = self.id * N + other.id;
+        reactSelf[k] = selfBecomes.id;
+        reactOther[k] = otherBecomes.id;
+        reactChance[k] = (int) Math.round(chance * CERTAIN);
+        return this;
+    }
+
+    // eats everything it touches, except air and itself
+    MaterialTable dissolves(Material solvent, double chance) {
+        for (Material other : Material.values()) {
+            if (other != EMPTY && other != solvent) {
+                react(solvent, other, solvent, EMPTY, chance);
+            }
+        }
+        return this;
+    }
+
+    MaterialTable heat(Material m, double conduct, double rest, double pull, double start) {
+        this.conduct[m.id] = (float) conduct;
+        this.rest[m.id] = (float) rest;
+        this.pull[m.id] = (float) pull;
+        this.start[m.id] = (float) start;
+        return this;
+    }
+
+    MaterialTable melts(Material m, double above, Material into) {
+        meltAt[m.id] = (float) above;
+        meltTo[m.id] = into.id;
+        return this;
+    }
+
+    MaterialTable freezes(Material m, double below, Material into) {
+        freezeAt[m.id] = (float) below;
+        freezeTo[m.id] = into.id;
+        return this;
+    }
+
+    MaterialTable compile() {
+        Material[] all = Material.values();
+        for (Material m : all) {
+            movement[m.id] = (byte) m.movement.ordinal();
+            active[m.id] = m.movement != Movement.STATIC;
+            for (Material other : all) {
+                if (reactChance[m.id * N + other.id] > 0) {
+                    active[m.id] = true;
+                }
+            }
+        }
+        for (Material a : all) {
+            for (Material b : all) {
+                int k = a.id * N + b.id;
+                boolean fluid = b == EMPTY || b.movement == Movement.LIQUID || b.movement == Movement.GAS;
+                // things that react with each other don't pass through each other, they react
+                boolean reacts = reactChance[k] > 0 || reactChance[b.id * N + a.id] > 0;
+                boolean falls = a.movement == Movement.POWDER || a.movement == Movement.LIQUID;
+                sinks[k] = falls && fluid && !reacts && b.density < a.density;
+                rises[k] = a.movement == Movement.GAS && (b == EMPTY || b.movement == Movement.GAS)
+                        && !reacts && b.density > a.density;
+            }
+        }
+        return this;
+    }
+}
@@ -0,0 +1,149 @@
+package com.company;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// where the time goes: how long ticks take to simulate, render and upload, how many cells moved,
+// got leveled, melted or froze, how many chunks were awake and how many cells of each material there are.
+//
+// off by default. when off, all that's left of it is one volatile read per tick and per frame;
+// the engine turns the grid's counting on and off between ticks when it sees the switch flip
+final class Metrics implements MetricsMXBean {
+    final Histogram simulate = new Histogram();
+    final Histogram render = new Histogram();
+    final Histogram upload = new Histogram();
+
+    private volatile boolean enabled;
+    private volatile long ticks;
+    private volatile long movedCells;
+    private volatile long leveledCells;
+    private volatile long phaseChanges;
+    private volatile int awakeChunks;
+    private volatile long[] population = new long[Cell.COUNT];
+
+    boolean enabled() {
+        return enabled;
+    }
+
+    // from the simulation thread, after every tick while enabled
+    void tick(long nanos, long moved, long leveled, long phases, int awake, long[] population) {
+        simulate.record(nanos);
+        movedCells = moved;
+        leveledCells = leveled;
+        phaseChanges = phases;
+        awakeChunks = awake;
+        if (population != null) {
+            this.population = population.clone();
+        }
+        ticks++;
+    }
+
+    // shows up in jconsole as com.company:type=Metrics
+    void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("com.company:type=Metrics"));
+        } catch (JMException e) {
+            System.err.println("couldn't register metrics: " + e.getMessage());
+        }
+    }
+
+    // a few lines for the on screen overlay
+    String[] hud() {
+        long[] population = this.population;
+        StringBuilder materials = new StringBuilder();
+        for (Material m : Material.values()) {
+            if (m != Material.EMPTY && population[m.id] > 0) {
+                materials.append(m.name().toLowerCase(Locale.ROOT)).append(' ').append(population[m.id]).append("  ");
+            }
+        }
+        return new String[]{
+                String.format(Locale.ROOT, "tick %d  sim %.2f ms (p99 %.2f)", ticks, simulate.mean() / 1e6, simulate.percentile(99) / 1e6),
+                String.format(Locale.ROOT, "render %.2f ms  upload %.2f ms", render.mean() / 1e6, upload.mean() / 1e6),
+                "moved " + movedCells + "  leveled " + leveledCells + "  melted/froze " + phaseChanges + "  awake chunks " + awakeChunks,
+                materials.toString()
+        };
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public long getTicks() {
+        return ticks;
+    }
+
+    @Override
+    public Map<String, Long> getSimulate() {
+        return summary(simulate);
+    }
+
+    @Override
+    public Map<String, Long> getRender() {
+        return summary(render);
+    }
+
+    @Override
+    public Map<String, Long> getUpload() {
+        return summary(upload);
+    }
+
+    @Override
+    public long getMovedCells() {
+        return movedCells;
+    }
+
+    @Override
+    public long getLeveledCells() {
+        return leveledCells;
+    }
+
+    @Override
+    public long getPhaseChanges() {
+        return phaseChanges;
+    }
+
+    @Override
+    public int getAwakeChunks() {
+        return awakeChunks;
+    }
+
+    @Override
+    public Map<String, Long> getPopulation() {
+        long[] population = this.population;
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (Material m : Material.values()) {
+            map.put(m.name(), population[m.id]);
+        }
+        return map;
+    }
+
+    @Override
+    public void reset() {
+        simulate.reset();
+        render.reset();
+        upload.reset();
+        ticks = 0;
+    }
+
+    private static Map<String, Long> summary(Histogram h) {
+        Map<String, Long> map = new LinkedHashMap<>();
+        map.put("count", h.count());
+        map.put("mean", h.mean());
+        map.put("p50", h.percentile(50));
+        map.put("p90", h.percentile(90));
+        map.put("p99", h.percentile(99));
+        map.put("max", h.max());
+        return map;
+    }
+}
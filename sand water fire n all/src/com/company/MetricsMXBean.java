@@ -0,0 +1,31 @@
+package com.company;
+
+import java.util.Map;
+
+// what Metrics shows over JMX (jconsole, VisualVM...), under com.company:type=Metrics.
+// the per phase maps have count, mean, p50, p90, p99 and max, all in nanoseconds
+public interface MetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getTicks();
+
+    Map<String, Long> getSimulate();
+
+    Map<String, Long> getRender();
+
+    Map<String, Long> getUpload();
+
+    long getMovedCells();
+
+    long getLeveledCells();
+
+    long getPhaseChanges();
+
+    int getAwakeChunks();
+
+    Map<String, Long> getPopulation();
+
+    void reset();
+}
@@ -0,0 +1,13 @@
+package com.company;
+
+// how a material moves by itself, see MaterialTable for what each one means
+enum Movement {
+    // never moves (rock, wood, and EMPTY itself)
+    STATIC,
+    // falls down, or slides down a diagonal
+    POWDER,
+    // falls like a powder, and spreads sideways when it can't fall
+    LIQUID,
+    // rises up a diagonal, and spreads sideways when it can't rise
+    GAS
+}
@@ -0,0 +1,250 @@
+package com.company;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// a world of CHUNK x CHUNK chunks with no edges short of int coordinates (about 4 billion cells each way),
+// kept on disk in region files. SparseEngine runs the rules on it a chunk at a time, wherever something
+// is awake, so it's simulated everywhere, not just around the viewport.
+// at most budget bytes of chunks are kept in memory; touching one that isn't pages it in from its region
+// file (or starts it EMPTY), and when that goes over budget some get written back out and dropped:
+//  - first the ones asleep for a long time (nothing written to them for LONG_SLEEP ticks, or ever since
+//    they were paged in: those were only read, as the ring around an awake one),
+//  - among those, and then among the rest, the ones farthest from the focus (what's on screen),
+//  - among the ones as far away, the least recently used.
+// the ones that are awake are the last to go, and when they do they get paged back in next tick.
+// so the heap stays the same size however big the world gets
+//
+// DEFAULT rules only, like SparseEngine: there are no temperatures to keep
+//
+// not thread safe, SparseEngine steps it on one thread
+final class PagedWorld implements ChunkWorld, Closeable {
+    static final int CHUNK = Grid.CHUNK;
+    private static final int SHIFT = Grid.CHUNK_SHIFT;
+    private static final int REGION = RegionFile.REGION;
+    // region files kept mapped at once, each one is a 1 MB mapping
+    private static final int MAPPED_REGIONS = 16;
+    // ticks without anything written to a chunk after which it counts as asleep for a long time
+    static final int LONG_SLEEP = 600;
+    // the chunks at the very ends of int coordinates are left out, so that a chunk and its ring
+    // (SparseEngine.run) never go past them
+    private static final int MIN_CHUNK = Integer.MIN_VALUE >> SHIFT;
+    private static final int MAX_CHUNK = Integer.MAX_VALUE >> SHIFT;
+
+    private final Path dir;
+    private final long budget;
+    private long residentBytes;
+    private final LinkedHashMap<Long, Page> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<Long> modified = new HashSet<>();
+    private final LinkedHashMap<Long, RegionFile> regions;
+    // chunks focusX0..focusX1, focusY0..focusY1 (inclusive) are at distance 0, see focus
+    private int focusX0;
+    private int focusY0;
+    private int focusX1;
+    private int focusY1;
+    // the latest tick anything was written in, see written
+    private long now;
+
+    long pageIns;
+    long pageOuts;
+
+    // a chunk in memory
+    private static final class Page {
+        final byte[] cells = new byte[RegionFile.CHUNK_BYTES];
+        // the last tick something was written to it while it was in memory
+        long writtenAt = Long.MIN_VALUE;
+    }
+
+    // budget: how many bytes of chunks to keep in memory, at least nine chunks' worth (a chunk and its ring)
+    PagedWorld(Path dir, long budget) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.budget = budget;
+        regions = new LinkedHashMap<Long, RegionFile>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, RegionFile> eldest) {
+                if (size() <= MAPPED_REGIONS) {
+                    return false;
+                }
+                try {
+                    eldest.getValue().close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return true;
+            }
+        };
+    }
+
+    @Override
+    public boolean contains(int cx, int cy) {
+        return cx > MIN_CHUNK && cx < MAX_CHUNK && cy > MIN_CHUNK && cy < MAX_CHUNK;
+    }
+
+    @Override
+    public byte get(int x, int y) {
+        return page(x >> SHIFT, y >> SHIFT).cells[(y & (CHUNK - 1)) * CHUNK + (x & (CHUNK - 1))];
+    }
+
+    @Override
+    public void set(int x, int y, byte m) {
+        cells(x >> SHIFT, y >> SHIFT)[(y & (CHUNK - 1)) * CHUNK + (x & (CHUNK - 1))] = m;
+    }
+
+    // paged in if needed, and marked modified right away: it can be paged out again before written() comes
+    @Override
+    public byte[] cells(int cx, int cy) {
+        Page page = page(cx, cy);
+        modified.add(key(cx, cy));
+        return page.cells;
+    }
+
+    // starts chunk (cx, cy)'s sleep over. one that was paged out in the meantime was written out
+    // as modified, it doesn't get paged back in just for this
+    @Override
+    public void written(int cx, int cy, long tick) {
+        now = Math.max(now, tick);
+        Page page = resident.get(key(cx, cy));
+        if (page != null) {
+            page.writtenAt = tick;
+        }
+    }
+
+    @Override
+    public void read(int x0, int y0, int w, int h, byte[] dst) {
+        int x1 = x0 + w - 1;
+        int y1 = y0 + h - 1;
+        for (int cy = y0 >> SHIFT; cy <= y1 >> SHIFT; cy++) {
+            for (int cx = x0 >> SHIFT; cx <= x1 >> SHIFT; cx++) {
+                byte[] cells = page(cx, cy).cells;
+                int c0 = Math.max(x0, cx * CHUNK);
+                int c1 = Math.min(x1, cx * CHUNK + CHUNK - 1);
+                for (int y = Math.max(y0, cy * CHUNK); y <= Math.min(y1, cy * CHUNK + CHUNK - 1); y++) {
+                    System.arraycopy(cells, (y - cy * CHUNK) * CHUNK + c0 - cx * CHUNK,
+                            dst, (y - y0) * w + c0 - x0, c1 - c0 + 1);
+                }
+            }
+        }
+    }
+
+    // what paging out keeps longest after what's awake: chunks cx0..cx1, cy0..cy1 (inclusive), normally
+    // what's on screen
+    void focus(int cx0, int cy0, int cx1, int cy1) {
+        focusX0 = cx0;
+        focusY0 = cy0;
+        focusX1 = cx1;
+        focusY1 = cy1;
+    }
+
+    int residentChunks() {
+        return resident.size();
+    }
+
+    // writes every modified chunk still in memory back to its region file and syncs the files
+    void flush() {
+        for (Map.Entry<Long, Page> e : resident.entrySet()) {
+            if (modified.remove(e.getKey())) {
+                write(e.getKey(), e.getValue());
+            }
+        }
+        for (RegionFile region : regions.values()) {
+            region.force();
+        }
+    }
+
+    private Page page(int cx, int cy) {
+        long key = key(cx, cy);
+        Page page = resident.get(key);
+        if (page == null) {
+            page = new Page();
+            region(cx >> 5, cy >> 5).read(cx & (REGION - 1), cy & (REGION - 1), page.cells);
+            pageIns++;
+            resident.put(key, page);
+            residentBytes += RegionFile.CHUNK_BYTES;
+            trim(key);
+        }
+        return page;
+    }
+
+    // pages out down to 7/8 of the budget when it's over, in the order at the top, so a sort is only
+    // needed every so often. keep stays in: somebody is about to use it
+    private void trim(long keep) {
+        if (residentBytes <= budget) {
+            return;
+        }
+        // (awake, distance, place in the access order, least recent first), sorted in the order they go
+        long[] order = new long[resident.size()];
+        long[] keys = new long[resident.size()];
+        int n = 0;
+        for (Map.Entry<Long, Page> e : resident.entrySet()) {
+            long key = e.getKey();
+            long awake = e.getValue().writtenAt > now - LONG_SLEEP ? 1 : 0;
+            int d = (int) Math.min(distance((int) (key >> 32), (int) key), Integer.MAX_VALUE);
+            order[n] = awake << 62 | (long) (Integer.MAX_VALUE - d) << 31 | n;
+            keys[n++] = key;
+        }
+        Arrays.sort(order, 0, n);
+        long target = budget - budget / 8;
+        for (int k = 0; k < n && residentBytes > target; k++) {
+            long key = keys[(int) (order[k] & Integer.MAX_VALUE)];
+            if (key != keep) {
+                pageOut(key, resident.remove(key));
+            }
+        }
+    }
+
+    // in chunks, from the focus rect
+    private long distance(int cx, int cy) {
+        long dx = Math.max(0, Math.max((long) focusX0 - cx, (long) cx - focusX1));
+        long dy = Math.max(0, Math.max((long) focusY0 - cy, (long) cy - focusY1));
+        return Math.max(dx, dy);
+    }
+
+    private void pageOut(long key, Page page) {
+        residentBytes -= RegionFile.CHUNK_BYTES;
+        if (modified.remove(key)) {
+            write(key, page);
+            pageOuts++;
+        }
+    }
+
+    private void write(long key, Page page) {
+        int cx = (int) (key >> 32);
+        int cy = (int) key;
+        region(cx >> 5, cy >> 5).write(cx & (REGION - 1), cy & (REGION - 1), page.cells);
+    }
+
+    private RegionFile region(int rx, int ry) {
+        long key = key(rx, ry);
+        RegionFile region = regions.get(key);
+        if (region == null) {
+            try {
+                region = new RegionFile(dir.resolve("r." + rx + "." + ry + ".bin"));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            regions.put(key, region);
+        }
+        return region;
+    }
+
+    private static long key(int a, int b) {
+        return ((long) a << 32) | (b & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        for (RegionFile region : regions.values()) {
+            region.close();
+        }
+        regions.clear();
+    }
+}
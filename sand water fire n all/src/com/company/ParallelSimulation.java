@@ -0,0 +1,106 @@
+package com.company;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+
+// same rules as Simulation, but the awake chunks are updated on a ForkJoinPool in 4 checkerboard
+// phases: (even x, even y), (odd x, even y), (even x, odd y), (odd x, odd y).
+// a chunk only touches cells up to one past its edge, so two chunks of the same phase
+// (always a whole chunk apart) can never write into each other's cells
+class ParallelSimulation extends Simulation {
+    // below this many awake chunks in a phase it's not worth forking
+    private static final int SPLIT = 2;
+
+    private final ForkJoinPool pool;
+    private final ThreadLocal<Rng> rngs = ThreadLocal.withInitial(() -> new Rng(ThreadLocalRandom.current().nextLong()));
+    private final int[][] phases = new int[4][];
+    private final int[] phaseSize = new int[4];
+
+    ParallelSimulation(Grid grid) {
+        this(grid, ForkJoinPool.commonPool());
+    }
+
+    ParallelSimulation(Grid grid, ForkJoinPool pool) {
+        super(grid);
+        this.pool = pool;
+        int perPhase = ((grid.chunksX + 1) / 2) * ((grid.chunksY + 1) / 2);
+        for (int p = 0; p < 4; p++) {
+            phases[p] = new int[perPhase];
+        }
+    }
+
+    @Override
+    void step() {
+        grid.beginTick();
+        sortIntoPhases();
+        for (int p = 0; p < 4; p++) {
+            runPhase(p, true);
+        }
+        // up ^^^^
+        for (int p = 0; p < 4; p++) {
+            runPhase(p, false);
+        }
+        grid.endTick();
+        tick++;
+    }
+
+    // bottom chunk rows first inside every phase, same as the single threaded pass
+    private void sortIntoPhases() {
+        for (int p = 0; p < 4; p++) {
+            phaseSize[p] = 0;
+        }
+        for (int cy = grid.chunksY - 1; cy >= 0; cy--) {
+            for (int cx = 0; cx < grid.chunksX; cx++) {
+                int chunk = cy * grid.chunksX + cx;
+                if (grid.isAwake(chunk)) {
+                    int p = (cx & 1) | ((cy & 1) << 1);
+                    phases[p][phaseSize[p]++] = chunk;
+                }
+            }
+        }
+    }
+
+    private void runPhase(int p, boolean down) {
+        int n = phaseSize[p];
+        if (n == 0) {
+            return;
+        }
+        if (n < SPLIT) {
+            new PhaseTask(phases[p], 0, n, down).compute();
+        } else {
+            pool.invoke(new PhaseTask(phases[p], 0, n, down));
+        }
+    }
+
+    private class PhaseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] chunks;
+        private final int from;
+        private final int to;
+        private final boolean down;
+
+        PhaseTask(int[] chunks, int from, int to, boolean down) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.down = down;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new PhaseTask(chunks, from, mid, down), new PhaseTask(chunks, mid, to, down));
+                return;
+            }
+            Rng rng = rngs.get();
+            if (down) {
+                updateChunkDown(chunks[from], rng);
+            } else {
+                updateChunkUp(chunks[from], rng);
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.company;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static com.company.Cell.EMPTY;
+
+// cells in free flight. eject() (or a burst of them) takes a cell out of the grid and gives it a velocity,
+// from then on it flies under gravity by itself, as many cells a tick as it's fast, and goes back into the
+// grid as soon as it hits something. a fast cell costs one particle update a tick, instead of a trail of
+// chunks it keeps awake for as many ticks as it has cells to go
+//
+// struct of arrays: position, velocity and material of particle i at index i of flat primitive arrays,
+// allocated once for a fixed capacity, so stepping allocates nothing. positions are in cells (column, row),
+// velocities in cells per tick
+//
+// a step moves every particle along a straight line for the tick, looking at each cell it passes, and stops
+// it in the last EMPTY one before anything that isn't, or before the sides or the bottom of the board (above
+// the top it just flies). that part only reads the grid, so with enough particles it's split across the
+// ForkJoinPool. putting the landed ones back is one thread, in particle order, so a seeded run stays
+// deterministic
+final class Particles {
+    // cells per tick, added to the vertical velocity every tick
+    static final float GRAVITY = 0.2f;
+    // cells per tick, in any one direction. keeps the walk along a particle's way short
+    static final float MAX_SPEED = 24;
+    // how fast a burst throws what's in its middle, it drops off to 0 at its edge
+    static final float BURST_SPEED = 6;
+    // fewer than this, and a step isn't worth handing out to other threads
+    static final int PARALLEL = 1 << 14;
+    private static final int SLICE = 4096;
+
+    final int capacity;
+    final float[] x;
+    final float[] y;
+    final float[] vx;
+    final float[] vy;
+    final byte[] material;
+    int count;
+
+    private final Grid grid;
+    private final byte[] cells;
+    private final ForkJoinPool pool;
+    // per particle, after move(): the cell it stopped in, -1 if it's still flying
+    private final int[] landed;
+    // for Grid.overlay
+    private final int[] at;
+    private final byte[] drawn;
+
+    Particles(Grid grid, int capacity, boolean parallel) {
+        this.grid = grid;
+        this.capacity = capacity;
+        cells = grid.cells();
+        x = new float[capacity];
+        y = new float[capacity];
+        vx = new float[capacity];
+        vy = new float[capacity];
+        material = new byte[capacity];
+        landed = new int[capacity];
+        at = new int[capacity];
+        drawn = new byte[capacity];
+        pool = parallel ? ForkJoinPool.commonPool() : null;
+    }
+
+    // takes the cell at (r, c) out of the grid and sends it flying, false if it's EMPTY or there's no room left
+    boolean eject(int r, int c, float vx, float vy) {
+        byte m = grid.get(r, c);
+        if (m == EMPTY || count == capacity) {
+            return false;
+        }
+        int i = count++;
+        x[i] = c + 0.5f;
+        y[i] = r + 0.5f;
+        this.vx[i] = vx;
+        this.vy[i] = vy;
+        material[i] = m;
+        grid.set(r, c, EMPTY);
+        return true;
+    }
+
+    // throws everything that can move (not STATIC in table) within radius of (x, y) away from the middle
+    // and a bit up, the faster the closer it was to the middle. each cell goes with chance density
+    void burst(int x, int y, int radius, double density, Rng rng, MaterialTable table) {
+        for (int r = Math.max(y - radius, 0); r <= Math.min(y + radius, grid.height - 1); r++) {
+            for (int c = Math.max(x - radius, 0); c <= Math.min(x + radius, grid.width - 1); c++) {
+                int dx = c - x;
+                int dy = r - y;
+                int d2 = dx * dx + dy * dy;
+                byte m = grid.get(r, c);
+                if (d2 > radius * radius || table.movement[m] == MaterialTable.STATIC) {
+                    continue;
+                }
+                if (density < 1 && !rng.chance(density)) {
+                    continue;
+                }
+                float d = (float) Math.sqrt(d2);
+                float speed = BURST_SPEED * (1 - d / (radius + 1));
+                float ux = d > 0 ? dx / d : 0;
+                float uy = d > 0 ? dy / d : -1;
+                if (!eject(r, c, ux * speed, uy * speed - speed / 2)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // one tick of flight; returns how many particles went back into the grid
+    int step() {
+        if (count == 0) {
+            return 0;
+        }
+        if (pool != null && count >= PARALLEL) {
+            pool.invoke(new Slices(0, count));
+        } else {
+            move(0, count);
+        }
+        return land();
+    }
+
+    // gravity, then the particles from..to along their way, stopping any that hit something
+    private void move(int from, int to) {
+        int width = grid.width;
+        int height = grid.height;
+        for (int i = from; i < to; i++) {
+            float dx = Math.max(-MAX_SPEED, Math.min(MAX_SPEED, vx[i]));
+            float dy = Math.max(-MAX_SPEED, Math.min(MAX_SPEED, vy[i] + GRAVITY));
+            vx[i] = dx;
+            vy[i] = dy;
+            float px = x[i];
+            float py = y[i];
+            int c = floor(px);
+            int r = floor(py);
+            // one look per cell along the way, at least
+            int steps = (int) Math.ceil(Math.max(Math.abs(dx), Math.abs(dy)));
+            float sx = steps > 0 ? dx / steps : 0;
+            float sy = steps > 0 ? dy / steps : 0;
+            landed[i] = -1;
+            boolean stopped = false;
+            for (int s = 1; s <= steps; s++) {
+                int nc = floor(px + sx * s);
+                int nr = floor(py + sy * s);
+                if (nc == c && nr == r) {
+                    continue;
+                }
+                if (nc < 0 || nc >= width || nr >= height || nr >= 0 && cells[nr * width + nc] != EMPTY) {
+                    stopped = true;
+                    break;
+                }
+                c = nc;
+                r = nr;
+            }
+            if (!stopped) {
+                x[i] = px + dx;
+                y[i] = py + dy;
+            } else if (r >= 0) {
+                landed[i] = r * width + c;
+            } else {
+                // ran into a side above the top of the board, or onto a column that's full to the top:
+                // stops there and falls straight back down, for as long as it takes to find room
+                x[i] = c + 0.5f;
+                y[i] = r + 0.5f;
+                vx[i] = 0;
+            }
+        }
+    }
+
+    // puts every particle that stopped into the grid, where it stopped or, if something got there first,
+    // the first EMPTY cell straight above. one that can't find one keeps flying (straight down) for now
+    private int land() {
+        int width = grid.width;
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            int cell = landed[i];
+            if (cell < 0) {
+                continue;
+            }
+            while (cell >= 0 && cells[cell] != EMPTY) {
+                cell -= width;
+            }
+            if (cell < 0) {
+                vx[i] = 0;
+                vy[i] = 0;
+                continue;
+            }
+            grid.set(cell, material[i]);
+            landed[i] = -2;
+            n++;
+        }
+        // and out of the arrays, keeping the order of the rest
+        int k = 0;
+        for (int i = 0; i < count; i++) {
+            if (landed[i] == -2) {
+                continue;
+            }
+            if (k != i) {
+                x[k] = x[i];
+                y[k] = y[i];
+                vx[k] = vx[i];
+                vy[k] = vy[i];
+                material[k] = material[i];
+            }
+            k++;
+        }
+        count = k;
+        return n;
+    }
+
+    // everything still flying goes into the grid right where it is (or the first EMPTY cell above that),
+    // for saving: particles aren't in the snapshot format
+    int landAll() {
+        int width = grid.width;
+        for (int i = 0; i < count; i++) {
+            int c = Math.max(0, Math.min(width - 1, floor(x[i])));
+            int r = Math.min(grid.height - 1, floor(y[i]));
+            landed[i] = r < 0 ? c : r * width + c;
+        }
+        return land();
+    }
+
+    // forgets everything in flight, for when the board gets replaced
+    void clear() {
+        count = 0;
+    }
+
+    // draws the flying particles over the board in the grid's front buffer, see Grid.overlay
+    void draw() {
+        int n = 0;
+        int width = grid.width;
+        for (int i = 0; i < count; i++) {
+            int c = floor(x[i]);
+            int r = floor(y[i]);
+            if (r >= 0 && r < grid.height && c >= 0 && c < width) {
+                at[n] = r * width + c;
+                drawn[n] = material[i];
+                n++;
+            }
+        }
+        grid.overlay(at, drawn, n);
+    }
+
+    // (int) Math.floor without the trip through double, it's in the innermost loop
+    private static int floor(float v) {
+        int i = (int) v;
+        return v < i ? i - 1 : i;
+    }
+
+    private final class Slices extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        Slices(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SLICE) {
+                move(from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Slices(from, mid), new Slices(mid, to));
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.company;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// a painting session on disk: the board it started from and every paint call after that, with the tick
+// it came in on. with a seeded engine Replay gets back the exact same board, tick for tick
+//
+//   int MAGIC, short VERSION, then a full Snapshot of the starting board (seed and paint Rng state included)
+//   then events, each one a byte tag and a varint of ticks since the event before it:
+//     PAINT: a Stroke. zigzag varints x0 and y0, then what's flagged in the tag: zigzag varints x1 - x0
+//            and y1 - y0 (LINE, else it's a dot), and whatever changed since the last paint:
+//            varint radius (BRUSH), long density bits (DENSITY), byte material (MATERIAL).
+//            BLAST: the stroke is a blast (Stroke.blast)
+//     END:   the recording stops on that tick
+//
+// a drag is mostly PAINTs with nothing but the two ends in them, 5 to 7 bytes each
+final class Recorder implements Closeable {
+    static final int MAGIC = 0x53524543; // "SREC"
+    // 3: blasts, 2: strokes with round brushes, 1 had square brushes and no lines
+    static final short VERSION = 3;
+
+    static final int END = 0;
+    static final int PAINT = 1;
+    static final int BRUSH = 2;
+    static final int DENSITY = 4;
+    static final int MATERIAL = 8;
+    static final int LINE = 16;
+    static final int BLAST = 32;
+
+    // biggest an event can get: the tag, 6 varints of up to 10 bytes, the density and the material
+    private static final int MAX_EVENT = 1 + 6 * 10 + 8 + 1;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    private long lastTick;
+    private int lastBrush = -1;
+    private long lastDensity = -1;
+    private byte lastMaterial = -1;
+    long events;
+
+    Recorder(SimulationEngine engine, Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC).putShort(VERSION);
+        drain();
+        Snapshot.copy(engine, channel);
+        lastTick = engine.tick();
+    }
+
+    void paint(long tick, Stroke s) {
+        int tag = PAINT;
+        long densityBits = Double.doubleToLongBits(s.density);
+        if (s.x1 != s.x0 || s.y1 != s.y0) {
+            tag |= LINE;
+        }
+        if (s.blast) {
+            tag |= BLAST;
+        }
+        if (s.radius != lastBrush) {
+            tag |= BRUSH;
+        }
+        if (densityBits != lastDensity) {
+            tag |= DENSITY;
+        }
+        if (s.material.id != lastMaterial) {
+            tag |= MATERIAL;
+        }
+        event(tag, tick);
+        putVarLong(zigzag(s.x0));
+        putVarLong(zigzag(s.y0));
+        if ((tag & LINE) != 0) {
+            putVarLong(zigzag(s.x1 - s.x0));
+            putVarLong(zigzag(s.y1 - s.y0));
+        }
+        if ((tag & BRUSH) != 0) {
+            putVarLong(s.radius);
+            lastBrush = s.radius;
+        }
+        if ((tag & DENSITY) != 0) {
+            buffer.putLong(densityBits);
+            lastDensity = densityBits;
+        }
+        if ((tag & MATERIAL) != 0) {
+            buffer.put(s.material.id);
+            lastMaterial = s.material.id;
+        }
+        events++;
+    }
+
+    private void event(int tag, long tick) {
+        if (buffer.remaining() < MAX_EVENT) {
+            try {
+                drain();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        buffer.put((byte) tag);
+        putVarLong(tick - lastTick);
+        lastTick = tick;
+    }
+
+    // marks where the session stopped, so a replay runs the ticks after the last paint too
+    void end(long tick) throws IOException {
+        event(END, tick);
+        drain();
+    }
+
+    private void putVarLong(long v) {
+        while ((v & ~0x7FL) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    static long getVarLong(ByteBuffer in) {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.company;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// one region of the world on disk: REGION x REGION chunks of CHUNK x CHUNK cells, one byte each,
+// stored at fixed offsets in a memory-mapped file. a chunk that was never written is all zeroes = EMPTY,
+// and the file is sparse, so untouched parts of a region cost no disk space either
+final class RegionFile implements Closeable {
+    static final int REGION = 32;
+    static final int CHUNK_BYTES = Grid.CHUNK * Grid.CHUNK;
+    static final int SIZE = REGION * REGION * CHUNK_BYTES;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+
+    RegionFile(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+    }
+
+    // lx, ly: chunk position inside the region, 0..REGION-1
+    void read(int lx, int ly, byte[] dst) {
+        map.position(offset(lx, ly));
+        map.get(dst, 0, CHUNK_BYTES);
+    }
+
+    void write(int lx, int ly, byte[] src) {
+        map.position(offset(lx, ly));
+        map.put(src, 0, CHUNK_BYTES);
+    }
+
+    void force() {
+        map.force();
+    }
+
+    private static int offset(int lx, int ly) {
+        return (ly * REGION + lx) * CHUNK_BYTES;
+    }
+
+    @Override
+    public void close() throws IOException {
+        map.force();
+        channel.close();
+    }
+}
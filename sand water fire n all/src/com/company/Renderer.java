@@ -0,0 +1,86 @@
+package com.company;
+
+import java.util.Arrays;
+
+// turns the board into packed ARGB pixels through a material id -> color table.
+// keeps a copy of what it drew last time, so only cells that changed get repainted,
+// and remembers the rectangle around them so the caller can upload just that part
+final class Renderer {
+    final int width;
+    final int height;
+    final int[] pixels;
+
+    // bounding box of the pixels changed by the last update(), inclusive; dirtyMaxR < 0 means none
+    int dirtyMinC;
+    int dirtyMinR;
+    int dirtyMaxC;
+    int dirtyMaxR;
+
+    private final int[] palette;
+    private final byte[] shown;
+
+    Renderer(int width, int height) {
+        this(width, height, palette());
+    }
+
+    Renderer(int width, int height, int[] palette) {
+        this.width = width;
+        this.height = height;
+        this.palette = palette;
+        pixels = new int[width * height];
+        shown = new byte[width * height];
+        // no material has id -1, so the first update paints everything
+        Arrays.fill(shown, (byte) -1);
+    }
+
+    static int[] palette() {
+        int[] palette = new int[Cell.COUNT];
+        for (Material m : Material.values()) {
+            palette[m.id] = m.argb;
+        }
+        return palette;
+    }
+
+    // draws the part of a SparseWorld with its top left corner at (x0, y0), uniform regions are
+    // filled in whole (see SparseWorld.render). always repaints everything
+    void update(SparseWorld world, int x0, int y0) {
+        world.render(x0, y0, width, height, palette, pixels);
+        // what's on screen now didn't come from a board, the next update(cells) repaints it all
+        Arrays.fill(shown, (byte) -1);
+        dirtyMinC = 0;
+        dirtyMinR = 0;
+        dirtyMaxC = width - 1;
+        dirtyMaxR = height - 1;
+    }
+
+    // returns true if anything changed since the last call
+    boolean update(byte[] cells) {
+        int minC = width, minR = height, maxC = -1, maxR = -1;
+        for (int r = 0; r < height; r++) {
+            int row = r * width;
+            int c = Arrays.mismatch(cells, row, row + width, shown, row, row + width);
+            if (c < 0) {
+                continue;
+            }
+            int last = c;
+            for (; c < width; c++) {
+                int i = row + c;
+                byte m = cells[i];
+                if (m != shown[i]) {
+                    shown[i] = m;
+                    pixels[i] = palette[m];
+                    last = c;
+                    if (c < minC) minC = c;
+                }
+            }
+            if (last > maxC) maxC = last;
+            if (r < minR) minR = r;
+            maxR = r;
+        }
+        dirtyMinC = minC;
+        dirtyMinR = minR;
+        dirtyMaxC = maxC;
+        dirtyMaxR = maxR;
+        return maxR >= 0;
+    }
+}
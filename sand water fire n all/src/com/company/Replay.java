@@ -0,0 +1,110 @@
+package com.company;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+
+// plays a Recorder file back without a window, as fast as it goes, and prints ticks per second
+// and a hash of the final board. same file, same hash: that's the regression check
+//
+//   java com.company.Replay session.rec [--serial] [--iterations 1]
+public class Replay {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: Replay <file> [--serial] [--iterations n]");
+            System.exit(2);
+        }
+        byte[] file = Files.readAllBytes(Paths.get(args[0]));
+        boolean parallel = true;
+        int iterations = 1;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--serial":
+                    parallel = false;
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        for (int it = 0; it < iterations; it++) {
+            long start = System.nanoTime();
+            SimulationEngine engine = replay(ByteBuffer.wrap(file), parallel);
+            long nanos = System.nanoTime() - start;
+            System.out.printf(Locale.ROOT, "%dx%d, ticks %d, %.1f ms: %.1f ticks/s (%s), board hash %08x%n",
+                    engine.width(), engine.height(), engine.tick(), nanos / 1e6, engine.tick() * 1e9 / nanos,
+                    parallel ? "parallel" : "serial", Arrays.hashCode(engine.front()));
+        }
+    }
+
+    // the board at the END of the recording in in
+    static SimulationEngine replay(ByteBuffer in, boolean parallel) throws IOException {
+        if (in.remaining() < 6 || in.getInt() != Recorder.MAGIC) {
+            throw new IOException("not a recording");
+        }
+        short version = in.getShort();
+        // a 2 is a 3 without blasts in it, a 1 has square brushes and no lines (see square())
+        if (version < 1 || version > Recorder.VERSION) {
+            throw new IOException("unsupported recording version " + version);
+        }
+        SimulationEngine engine = Snapshot.open(in, parallel);
+
+        long tick = engine.tick();
+        int brushSize = 0;
+        double density = 0;
+        Material material = Material.EMPTY;
+        while (in.hasRemaining()) {
+            int tag = in.get();
+            tick += Recorder.getVarLong(in);
+            engine.step((int) (tick - engine.tick()));
+            if (tag == Recorder.END) {
+                break;
+            }
+            int x0 = (int) Recorder.unzigzag(Recorder.getVarLong(in));
+            int y0 = (int) Recorder.unzigzag(Recorder.getVarLong(in));
+            int x1 = x0;
+            int y1 = y0;
+            if (version > 1 && (tag & Recorder.LINE) != 0) {
+                x1 += (int) Recorder.unzigzag(Recorder.getVarLong(in));
+                y1 += (int) Recorder.unzigzag(Recorder.getVarLong(in));
+            }
+            if ((tag & Recorder.BRUSH) != 0) {
+                brushSize = (int) Recorder.getVarLong(in);
+            }
+            if ((tag & Recorder.DENSITY) != 0) {
+                density = Double.longBitsToDouble(in.getLong());
+            }
+            if ((tag & Recorder.MATERIAL) != 0) {
+                material = Material.byId(in.get());
+            }
+            if (version == 1) {
+                square(engine, x0, y0, brushSize, density, material);
+            } else {
+                engine.paint(new Stroke(x0, y0, x1, y1, brushSize, density, material, (tag & Recorder.BLAST) != 0));
+            }
+        }
+        return engine;
+    }
+
+    // a version 1 paint, the way the engine did it back then: a square from size cells left of and above
+    // (x, y) to size - 1 right of and below it, one paint Rng draw per cell whatever the density.
+    // the rules have changed since (heat, leveling), so the board comes out different from the one
+    // the old version would have replayed to, but the strokes are the same
+    private static void square(SimulationEngine engine, int x, int y, int size, double density, Material m) {
+        for (int dx = -size; dx < size; dx++) {
+            for (int dy = -size; dy < size; dy++) {
+                if (engine.grid.inBounds(y + dy, x + dx) && engine.paintRng.chance(density)) {
+                    engine.grid.set(y + dy, x + dx, m.id);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.company;
+
+// xoroshiro128++, a small fast generator with no locks and no allocation.
+// every thread gets its own (see Simulation / ParallelSimulation), unlike Math.random()
+// which is one shared generator that all threads fight over.
+// coin flips are taken one bit at a time from a buffered 64 bit word instead of a whole double
+final class Rng {
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    private long s0;
+    private long s1;
+    private long bits;
+    private int bitsLeft;
+
+    Rng(long seed) {
+        seed(seed);
+    }
+
+    void seed(long seed) {
+        s0 = mix(seed + GOLDEN);
+        s1 = mix(seed + 2 * GOLDEN);
+        if ((s0 | s1) == 0) {
+            s1 = GOLDEN;
+        }
+        bitsLeft = 0;
+    }
+
+    long nextLong() {
+        long a = s0;
+        long b = s1;
+        long result = Long.rotateLeft(a + b, 17) + a;
+        b ^= a;
+        s0 = Long.rotateLeft(a, 49) ^ b ^ (b << 21);
+        s1 = Long.rotateLeft(b, 28);
+        return result;
+    }
+
+    // uniform in [0, 1)
+    double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    boolean nextBoolean() {
+        return nextBits(1) != 0;
+    }
+
+    // n random bits (1..32), e.g. nextBits(2) picks one of 4 equally likely cases
+    int nextBits(int n) {
+        if (bitsLeft < n) {
+            bits = nextLong();
+            bitsLeft = 64;
+        }
+        int result = (int) (bits & ((1L << n) - 1));
+        bits >>>= n;
+        bitsLeft -= n;
+        return result;
+    }
+
+    boolean chance(double p) {
+        return nextDouble() < p;
+    }
+
+    // the whole state, so a generator can be saved and restored exactly
+    long[] state() {
+        return new long[]{s0, s1, bits, bitsLeft};
+    }
+
+    void restore(long[] state) {
+        s0 = state[0];
+        s1 = state[1];
+        bits = state[2];
+        bitsLeft = (int) state[3];
+    }
+
+    // splitmix64 finalizer, turns any seed (even 0, 1, 2...) into well spread bits
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    static long mix(long seed, long a, long b) {
+        return mix(mix(mix(seed) + a * GOLDEN) + b);
+    }
+}
@@ -0,0 +1,104 @@
+package com.company;
+
+import java.util.Random;
+
+import static com.company.Cell.*;
+
+// ready made boards, used by the command line runner and the benchmarks
+// every scenario fills the whole grid, so the same one can be seeded at any size
+enum Scenario {
+    // a thick column of sand falling onto the floor
+    SAND_COLUMN {
+        @Override
+        void seed(Grid g, Random rnd) {
+            floor(g);
+            rect(g, 0, g.width * 3 / 8, g.height / 2, g.width * 5 / 8, SAND);
+        }
+    },
+    // the bottom half full of water, nothing moves much
+    OCEAN {
+        @Override
+        void seed(Grid g, Random rnd) {
+            floor(g);
+            rect(g, g.height / 2, 0, g.height - 1, g.width, WATER);
+        }
+    },
+    // lava poured next to a lake, turns into rock along the front
+    LAVA_WATER {
+        @Override
+        void seed(Grid g, Random rnd) {
+            floor(g);
+            rect(g, g.height * 2 / 3, g.width / 2, g.height - 1, g.width, WATER);
+            rect(g, g.height / 4, 0, g.height * 2 / 3, g.width / 2, LAVA);
+        }
+    },
+    // acid dropped on a block of wood
+    ACID_WOOD {
+        @Override
+        void seed(Grid g, Random rnd) {
+            floor(g);
+            rect(g, g.height / 2, g.width / 8, g.height - 1, g.width * 7 / 8, WOOD);
+            scatter(g, rnd, 0, 0, g.height / 4, g.width, ACID, 0.5);
+        }
+    },
+    // steam rising from the bottom of the board
+    STEAM_RISING {
+        @Override
+        void seed(Grid g, Random rnd) {
+            scatter(g, rnd, g.height / 2, 0, g.height, g.width, STEAM, 0.7);
+        }
+    },
+    // a few grains of sand falling through a mostly empty board
+    SPARSE {
+        @Override
+        void seed(Grid g, Random rnd) {
+            floor(g);
+            scatter(g, rnd, 0, 0, g.height - 1, g.width, SAND, 0.002);
+        }
+    },
+    // a bit of everything scattered around
+    MIXED {
+        @Override
+        void seed(Grid g, Random rnd) {
+            byte[] mats = {SAND, WATER, LAVA, ACID, SNOW, WOOD, STEAM, ROCK};
+            for (int r = 0; r < g.height; r++) {
+                for (int c = 0; c < g.width; c++) {
+                    if (rnd.nextInt(4) == 0) {
+                        g.set(r, c, mats[rnd.nextInt(mats.length)]);
+                    }
+                }
+            }
+        }
+    };
+
+    abstract void seed(Grid g, Random rnd);
+
+    void seed(SimulationEngine engine, long seed) {
+        engine.grid.fill(EMPTY);
+        seed(engine.grid, new Random(seed));
+        engine.grid.publish();
+    }
+
+    private static void floor(Grid g) {
+        rect(g, g.height - 1, 0, g.height, g.width, ROCK);
+    }
+
+    // rows r0 until r1, columns c0 until c1
+    private static void rect(Grid g, int r0, int c0, int r1, int c1, byte m) {
+        for (int r = r0; r < r1; r++) {
+            for (int c = c0; c < c1; c++) {
+                g.set(r, c, m);
+            }
+        }
+    }
+
+    private static void scatter(Grid g, Random rnd, int r0, int c0, int r1, int c1, byte m, double density) {
+        for (int r = r0; r < r1; r++) {
+            for (int c = c0; c < c1; c++) {
+                if (rnd.nextDouble() < density) {
+                    g.set(r, c, m);
+                }
+            }
+        }
+    }
+}
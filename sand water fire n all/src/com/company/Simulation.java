@@ -0,0 +1,307 @@
+package com.company;
+
+import static com.company.Cell.EMPTY;
+import static com.company.MaterialTable.*;
+
+// runs the rules from a MaterialTable against a Grid
+// a cell that already moved this tick is skipped so nothing gets moved twice,
+// and only the dirty rects of awake chunks are looked at
+//
+// every thread brings its own Rng. in deterministic mode that Rng gets reseeded from
+// (seed, tick, chunk, pass) before each chunk, so the board only depends on the seed
+// and the input, never on which thread happened to run which chunk
+class Simulation {
+    final Grid grid;
+    final int width;
+    final int height;
+    final byte[] b;
+
+    private byte[] movement;
+    private boolean[] active;
+    private boolean[] sinks;
+    private boolean[] rises;
+    private byte[] reactSelf;
+    private byte[] reactOther;
+    private int[] reactChance;
+    private boolean[] levels;
+    // falls[m]: m drops straight into EMPTY, for the bulk fall step
+    private final boolean[] falls = new boolean[N];
+    // spreads[m]: m random walks sideways; not for liquids a FluidSolver levels instead
+    private final boolean[] spreads = new boolean[N];
+
+    // when set, straight down moves into EMPTY are done for a whole row at once before the per-cell
+    // rules run on it (see Grid.fallStraight). same rules, but cells in a row settle in a different
+    // order, so a seeded run gives a different (still reproducible) board than without it
+    volatile boolean bulkFall;
+
+    private final Rng rng = new Rng(System.nanoTime());
+    private boolean deterministic;
+    private long seed;
+    long tick;
+    // which chunk row of the whole board this grid's first chunk row is, when the grid is only a strip
+    // of it (see StripWorker). phases and reseeding go by the whole board's chunk rows and numbers,
+    // so a strip comes out exactly like that part of the whole board would
+    int firstChunkRow;
+
+    Simulation(Grid grid) {
+        this(grid, MaterialTable.DEFAULT);
+    }
+
+    // the grid should have been made with the same table's active[] as its live cells
+    Simulation(Grid grid, MaterialTable table) {
+        this.grid = grid;
+        this.width = grid.width;
+        this.height = grid.height;
+        this.b = grid.cells();
+        rules(table);
+    }
+
+    // switches to another table's rules, between ticks only. its active[] can't have anything
+    // in it the grid's live cells don't (see Grid)
+    void rules(MaterialTable table) {
+        movement = table.movement;
+        active = table.active;
+        sinks = table.sinks;
+        rises = table.rises;
+        reactSelf = table.reactSelf;
+        reactOther = table.reactOther;
+        reactChance = table.reactChance;
+        for (int m = 0; m < N; m++) {
+            falls[m] = sinks[m * N + EMPTY];
+        }
+        leveled(levels);
+    }
+
+    // the liquids some FluidSolver takes care of (null: none), those stop spreading on their own.
+    // between ticks only
+    void leveled(boolean[] levels) {
+        this.levels = levels;
+        for (int m = 0; m < N; m++) {
+            spreads[m] = movement[m] == LIQUID && (levels == null || !levels[m]);
+        }
+    }
+
+    void deterministic(long seed) {
+        this.seed = seed;
+        deterministic = true;
+    }
+
+    // chunks go in the same 4 checkerboard phases as in ParallelSimulation (bottom rows first
+    // inside each), so a deterministic run gives the same board on one thread or many
+    void step() {
+        grid.beginTick();
+        for (int p = 0; p < 4; p++) {
+            phase(p, true, 0, grid.chunksY);
+        }
+        // up ^^^^
+        for (int p = 0; p < 4; p++) {
+            phase(p, false, 0, grid.chunksY);
+        }
+        grid.endTick();
+        tick++;
+    }
+
+    // checkerboard phase p of the down or the up pass, on chunk rows cy0 until cy1 only
+    void phase(int p, boolean down, int cy0, int cy1) {
+        for (int cy = cy1 - 1; cy >= cy0; cy--) {
+            if (((cy + firstChunkRow) & 1) != p >> 1) {
+                continue;
+            }
+            for (int cx = p & 1; cx < grid.chunksX; cx += 2) {
+                if (down) {
+                    updateChunkDown(cy * grid.chunksX + cx, rng);
+                } else {
+                    updateChunkUp(cy * grid.chunksX + cx, rng);
+                }
+            }
+        }
+    }
+
+    // only ever reads and writes cells inside the chunk's dirty rect plus one cell around it
+    void updateChunkDown(int chunk, Rng rng) {
+        if (!grid.isAwake(chunk)) {
+            return;
+        }
+        reseed(rng, chunk, 0);
+        int[] d = grid.dirty();
+        int k = chunk << 2;
+        int c0 = d[k];
+        int c1 = d[k + 2];
+        boolean bulk = bulkFall;
+        for (int r = d[k + 3]; r >= d[k + 1]; r--) {
+            if (bulk && r + 1 < height) {
+                grid.fallStraight(r, c0, c1, falls);
+            }
+            // jump from live cell to live cell
+            for (int w = c0 >> 6; w <= c1 >> 6; w++) {
+                long bits = grid.liveBits(r, w, c0, c1);
+                while (bits != 0) {
+                    int c = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    updateDown(r, c, rng);
+                }
+            }
+        }
+    }
+
+    void updateChunkUp(int chunk, Rng rng) {
+        if (!grid.isAwake(chunk)) {
+            return;
+        }
+        reseed(rng, chunk, 1);
+        int[] d = grid.dirty();
+        int k = chunk << 2;
+        int c0 = d[k];
+        int c1 = d[k + 2];
+        for (int r = d[k + 1]; r <= d[k + 3]; r++) {
+            for (int w = c0 >> 6; w <= c1 >> 6; w++) {
+                long bits = grid.liveBits(r, w, c0, c1);
+                while (bits != 0) {
+                    int c = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    updateUp(r, c, rng);
+                }
+            }
+        }
+    }
+
+    private void reseed(Rng rng, int chunk, int pass) {
+        if (deterministic) {
+            rng.seed(Rng.mix(seed, tick, (chunk + (long) firstChunkRow * grid.chunksX) * 2L + pass));
+        }
+    }
+
+    // everything that falls, flows or just sits there and reacts
+    void updateDown(int r, int c, Rng rng) {
+        int i = r * width + c;
+        int m = b[i];
+        if (!active[m] || movement[m] == GAS || grid.isUpdated(i)) {
+            return;
+        }
+        int mv = movement[m];
+        if (mv != STATIC && fall(r, c, i, m, rng)) {
+            return;
+        }
+        if (spreads[m] && spread(c, i, rng)) {
+            return;
+        }
+        react(r, c, i, m, rng);
+    }
+
+    // the upward pass, for gases
+    void updateUp(int r, int c, Rng rng) {
+        int i = r * width + c;
+        int m = b[i];
+        if (movement[m] != GAS || grid.isUpdated(i)) {
+            return;
+        }
+        if (rise(r, c, i, m, rng) || spread(c, i, rng)) {
+            return;
+        }
+        react(r, c, i, m, rng);
+    }
+
+    // straight down if it can sink into what's below, otherwise one of the two diagonals
+    private boolean fall(int r, int c, int i, int m, Rng rng) {
+        if (r + 1 >= height) {
+            return false;
+        }
+        int row = m * N;
+        int below = i + width;
+        if (sinks[row + b[below]]) {
+            grid.swap(i, below);
+            return true;
+        }
+        boolean left = c - 1 >= 0 && sinks[row + b[below - 1]];
+        boolean right = c + 1 < width && sinks[row + b[below + 1]];
+        if (left && right) {
+            grid.swap(i, rng.nextBoolean() ? below - 1 : below + 1);
+        } else if (left) {
+            grid.swap(i, below - 1);
+        } else if (right) {
+            grid.swap(i, below + 1);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    // up one of the diagonals, picked on a coin flip
+    private boolean rise(int r, int c, int i, int m, Rng rng) {
+        if (r - 1 < 0) {
+            return false;
+        }
+        int row = m * N;
+        int above = i - width;
+        boolean left = c - 1 >= 0 && rises[row + b[above - 1]];
+        boolean right = c + 1 < width && rises[row + b[above + 1]];
+        if (!left && !right) {
+            return false;
+        }
+        boolean goLeft = rng.nextBoolean();
+        if (goLeft && left) {
+            grid.swap(i, above - 1);
+        } else if (!goLeft && right) {
+            grid.swap(i, above + 1);
+        } else {
+            // the coin picked the blocked side, try again next tick
+            grid.keepAwake(i);
+            return false;
+        }
+        return true;
+    }
+
+    // left or right into EMPTY, picked on a coin flip
+    private boolean spread(int c, int i, Rng rng) {
+        boolean left = c - 1 >= 0 && b[i - 1] == EMPTY;
+        boolean right = c + 1 < width && b[i + 1] == EMPTY;
+        if (!left && !right) {
+            return false;
+        }
+        boolean goLeft = rng.nextBoolean();
+        if (goLeft && left) {
+            grid.move(i, i - 1);
+        } else if (!goLeft && right) {
+            grid.move(i, i + 1);
+        } else {
+            grid.keepAwake(i);
+            return false;
+        }
+        return true;
+    }
+
+    // the first neighbour (left, right, up, down) it reacts with, if any
+    private void react(int r, int c, int i, int m, Rng rng) {
+        int row = m * N;
+        if (c - 1 >= 0 && react(i, i - 1, row, rng)) {
+            return;
+        }
+        if (c + 1 < width && react(i, i + 1, row, rng)) {
+            return;
+        }
+        if (r - 1 >= 0 && react(i, i - width, row, rng)) {
+            return;
+        }
+        if (r + 1 < height) {
+            react(i, i + width, row, rng);
+        }
+    }
+
+    private boolean react(int i, int j, int row, Rng rng) {
+        int k = row + b[j];
+        int chance = reactChance[k];
+        if (chance == 0) {
+            return false;
+        }
+        if (chance < CERTAIN && rng.nextBits(16) >= chance) {
+            // didn't happen this time, but it still can
+            grid.keepAwake(i);
+            return false;
+        }
+        grid.set(i, reactSelf[k]);
+        grid.set(j, reactOther[k]);
+        grid.markUpdated(i);
+        grid.markUpdated(j);
+        return true;
+    }
+}
@@ -0,0 +1,266 @@
+package com.company;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// the whole simulation without any JavaFX in it: a grid, the rules and a tick counter.
+// the UI, the command line runner and the benchmarks all drive the game through this
+//
+// an engine made with a seed is deterministic: the same seed and the same paint calls
+// give a bit-identical board, serial or parallel, however many threads there are
+//
+// input from other threads comes in as Strokes through submit(), they're queued and
+// all painted in one go at the start of the next tick
+//
+// cells thrown by a blast fly as Particles until they land, drawn over the board in front()
+final class SimulationEngine {
+    // most cells in flight at once, a blast throws what it can fit
+    static final int PARTICLES = 1 << 18;
+
+    final Grid grid;
+    final Simulation simulation;
+    private long seed;
+    private boolean deterministic;
+    final Rng paintRng;
+    private long tick;
+    private Recorder recorder;
+    private final ConcurrentLinkedQueue<Stroke> strokes = new ConcurrentLinkedQueue<>();
+    private final Brush brush = new Brush();
+    final Metrics metrics = new Metrics();
+    private final boolean parallel;
+    // the rules in use, THERMAL with heat and DEFAULT without
+    private MaterialTable table = MaterialTable.DEFAULT;
+    // levels WATER and ACID bodies after every tick, null when turned off
+    private FluidSolver fluids;
+    // temperatures, melting, freezing and burning after every tick, null when turned off
+    HeatField heat;
+    // Snapshot's write buffer, kept so a save doesn't allocate a new MB every time
+    ByteBuffer saveBuffer;
+    // cells in flight, see Stroke.blast
+    final Particles particles;
+    // whether the grid is counting for metrics right now, it follows metrics.enabled() between ticks
+    private boolean measuring;
+
+    SimulationEngine(int width, int height) {
+        this(width, height, true);
+    }
+
+    SimulationEngine(int width, int height, boolean parallel) {
+        this(width, height, parallel, System.nanoTime(), false);
+    }
+
+    SimulationEngine(int width, int height, boolean parallel, long seed) {
+        this(width, height, parallel, seed, true);
+    }
+
+    SimulationEngine(int width, int height, boolean parallel, long seed, boolean deterministic) {
+        grid = new Grid(width, height, true);
+        simulation = parallel ? new ParallelSimulation(grid) : new Simulation(grid);
+        this.parallel = parallel;
+        this.seed = seed;
+        this.deterministic = deterministic;
+        paintRng = new Rng(Rng.mix(seed));
+        particles = new Particles(grid, PARTICLES, parallel);
+        if (deterministic) {
+            simulation.deterministic(seed);
+        }
+        heat(true);
+        leveling(true);
+    }
+
+    // on: a HeatField does melting, freezing, boiling and burning by temperature (MaterialTable.THERMAL),
+    // off: neighbours react as if it did (MaterialTable.DEFAULT). on by default; turning it on again
+    // starts every cell at its material's temperature
+    void heat(boolean on) {
+        table = on ? MaterialTable.THERMAL : MaterialTable.DEFAULT;
+        heat = on ? new HeatField(grid, table, parallel) : null;
+        simulation.rules(table);
+        if (fluids != null) {
+            leveling(true);
+        }
+    }
+
+    // on: WATER and ACID get leveled a body at a time by a FluidSolver, off: they random walk like
+    // the other liquids. on by default; a seeded run gives a different board one way than the other
+    void leveling(boolean on) {
+        boolean[] levels = FluidSolver.defaultLevels();
+        fluids = on ? new FluidSolver(grid, table, levels) : null;
+        simulation.leveled(on ? levels : null);
+    }
+
+    // turns the bulk (8 cells at a time) straight-fall step on or off, see Simulation.bulkFall
+    void bulkFall(boolean on) {
+        simulation.bulkFall = on;
+    }
+
+    long seed() {
+        return seed;
+    }
+
+    boolean isDeterministic() {
+        return deterministic;
+    }
+
+    int width() {
+        return grid.width;
+    }
+
+    int height() {
+        return grid.height;
+    }
+
+    long tick() {
+        return tick;
+    }
+
+    // picks up where a snapshot left off, see Snapshot
+    void restore(long tick, long seed, boolean deterministic, long[] paintState) {
+        this.tick = tick;
+        simulation.tick = tick;
+        this.seed = seed;
+        this.deterministic = deterministic;
+        if (deterministic) {
+            simulation.deterministic(seed);
+        }
+        paintRng.restore(paintState);
+    }
+
+    // writes the whole board to file. cells in flight can't go in a snapshot, they land where they are first
+    void save(Path file) throws IOException {
+        land();
+        Snapshot.write(this, file, false);
+    }
+
+    // writes only the chunks that could have changed since the last save, full or incremental
+    void saveIncremental(Path file) throws IOException {
+        land();
+        Snapshot.write(this, file, true);
+    }
+
+    private void land() {
+        if (particles.landAll() > 0) {
+            grid.publishWoken();
+            particles.draw();
+        }
+    }
+
+    // a full snapshot replaces the board (and has to be the same size), an incremental one goes on top
+    // cells in flight are dropped, they were thrown on the board that's gone now
+    void load(Path file) throws IOException {
+        particles.clear();
+        Snapshot.read(this, file);
+    }
+
+    // a new engine the size of the board in a full snapshot, with that board in it
+    static SimulationEngine open(Path file, boolean parallel) throws IOException {
+        return Snapshot.open(file, parallel);
+    }
+
+    // from now on every paint call goes to file too, see Recorder. replays exactly only when seeded
+    void record(Path file) throws IOException {
+        stopRecording();
+        land();
+        recorder = new Recorder(this, file);
+    }
+
+    void stopRecording() throws IOException {
+        if (recorder != null) {
+            try {
+                recorder.end(tick);
+            } finally {
+                recorder.close();
+                recorder = null;
+            }
+        }
+    }
+
+    void step() {
+        boolean measure = metrics.enabled();
+        if (measure != measuring) {
+            grid.metrics(measure);
+            measuring = measure;
+        }
+        long start = measure ? System.nanoTime() : 0;
+
+        Stroke stroke;
+        while ((stroke = strokes.poll()) != null) {
+            paint(stroke);
+        }
+        simulation.step();
+        // before leveling and heat, so whatever lands gets leveled and heated this tick
+        int landed = particles.step();
+        if (fluids != null) {
+            fluids.solve();
+        }
+        if (heat != null) {
+            heat.step();
+        }
+        if (fluids != null || heat != null || landed > 0) {
+            grid.publishWoken();
+        }
+        particles.draw();
+        tick++;
+
+        if (measure) {
+            metrics.tick(System.nanoTime() - start, grid.moved, fluids != null ? fluids.moved : 0,
+                    heat != null ? heat.changed : 0, grid.awakeChunks(), grid.population());
+        }
+    }
+
+    void step(int n) {
+        for (int i = 0; i < n; i++) {
+            step();
+        }
+    }
+
+    // safe from any thread, gets painted before the next tick
+    void submit(Stroke stroke) {
+        strokes.add(stroke);
+    }
+
+    // round brush of radius brushSize centered on (x, y), each cell gets painted with probability density
+    void paint(int x, int y, int brushSize, double density, Material m) {
+        paint(Stroke.dot(x, y, brushSize, density, m));
+    }
+
+    // right now, so only from the thread that steps the engine
+    void paint(Stroke s) {
+        if (recorder != null) {
+            recorder.paint(tick, s);
+        }
+        if (s.blast) {
+            particles.burst(s.x0, s.y0, s.radius, s.density, paintRng, table);
+            return;
+        }
+        brush.rasterize(s);
+        byte m = s.material.id;
+        int r0 = Math.max(brush.top, 0);
+        int r1 = Math.min(brush.top + brush.rows, grid.height);
+        for (int r = r0; r < r1; r++) {
+            int c0 = Math.max(brush.lo[r - brush.top], 0);
+            int c1 = Math.min(brush.hi[r - brush.top], grid.width - 1);
+            for (int c = c0; c <= c1; c++) {
+                if (s.density >= 1 || paintRng.chance(s.density)) {
+                    grid.set(r, c, m);
+                }
+            }
+        }
+    }
+
+    void fill(Material m) {
+        particles.clear();
+        grid.fill(m.id);
+    }
+
+    // the last finished tick, for drawing; the array is reused, don't hold on to it
+    byte[] front() {
+        return grid.front();
+    }
+
+    // a copy of the last finished tick that the caller can keep
+    byte[] snapshot() {
+        return grid.front().clone();
+    }
+}
@@ -0,0 +1,110 @@
+package com.company;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// runs a SimulationEngine on its own thread at a fixed rate (or flat out), so a slow tick never holds
+// up the UI and the UI's frame rate doesn't decide how fast the simulation goes.
+// after every tick the board is copied into a TripleBuffer for whoever draws it.
+//
+// once started, the engine belongs to this thread: paint goes in through engine.submit(), anything
+// else has to wait until stop()
+final class SimulationThread {
+    // a finished tick, as handed to the reader
+    static final class Frame {
+        final byte[] cells;
+        // per chunk, the last tick it could have changed in, so a reader that skipped frames still
+        // knows everything that changed since the one it saw last (see Viewport)
+        final long[] changed;
+        long tick = -1;
+
+        Frame(int size) {
+            this(size, 0);
+        }
+
+        Frame(int size, int chunks) {
+            cells = new byte[size];
+            changed = new long[chunks];
+        }
+    }
+
+    // falling this many ticks behind just drops them instead of trying to catch up
+    private static final int MAX_BEHIND = 5;
+
+    final SimulationEngine engine;
+    private final TripleBuffer<Frame> frames;
+    // what goes into Frame.changed, kept here since the frames only get every third tick each
+    private final long[] changed;
+    private final Thread thread;
+    // ticks per second, <= 0 = as fast as possible
+    private volatile double rate;
+    private volatile boolean running;
+
+    SimulationThread(SimulationEngine engine, double ticksPerSecond) {
+        this.engine = engine;
+        int size = engine.width() * engine.height();
+        int chunks = engine.grid.chunksX * engine.grid.chunksY;
+        frames = new TripleBuffer<>(new Frame(size, chunks), new Frame(size, chunks), new Frame(size, chunks));
+        changed = new long[chunks];
+        rate = ticksPerSecond;
+        thread = new Thread(this::run, "simulation");
+        thread.setDaemon(true);
+    }
+
+    // from any thread, takes effect right away (the speed slider in Main)
+    void rate(double ticksPerSecond) {
+        rate = ticksPerSecond;
+        LockSupport.unpark(thread);
+    }
+
+    // the newest finished tick, or null if there wasn't a new one since the last call. never blocks
+    Frame poll() {
+        return frames.poll();
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    // finishes the current tick, then returns; the engine is the caller's again
+    void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        while (running) {
+            engine.step();
+            Frame frame = frames.back();
+            System.arraycopy(engine.front(), 0, frame.cells, 0, frame.cells.length);
+            frame.tick = engine.tick();
+            // anything written since beginTick, painted or simulated, sits in a touched chunk,
+            // and cells in flight only show in front(), in the chunks the overlay changed
+            for (int chunk = 0; chunk < changed.length; chunk++) {
+                if (engine.grid.touched(chunk) || engine.grid.overlaid(chunk)) {
+                    changed[chunk] = frame.tick;
+                }
+            }
+            System.arraycopy(changed, 0, frame.changed, 0, changed.length);
+            frames.publish();
+
+            double rate = this.rate;
+            if (rate <= 0) {
+                next = System.nanoTime();
+                continue;
+            }
+            long period = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            next += period;
+            long now = System.nanoTime();
+            if (now - next > MAX_BEHIND * period) {
+                next = now;
+            }
+            while (running && this.rate == rate && (now = System.nanoTime()) < next) {
+                LockSupport.parkNanos(next - now);
+            }
+        }
+    }
+}
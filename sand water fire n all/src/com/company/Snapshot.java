@@ -0,0 +1,408 @@
+package com.company;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// the binary save format. everything big endian:
+//
+//   int    MAGIC, short VERSION, byte kind (FULL / INCREMENTAL), byte flags (bit 0 = deterministic, bit 1 = HEAT)
+//   int    width, int height
+//   long   tick, long seed, 4 longs paint Rng state
+//   int    number of chunk records, then per record:
+//     int  chunk index (cy * chunksX + cx), byte encoding (RLE / RAW)
+//     RLE: the chunk's rows top to bottom, each one as runs of (byte material, byte length - 1)
+//     RAW: the chunk's rows top to bottom, one byte per cell. used for speckled chunks where the
+//          runs are short, which would be about as big and a lot slower to load
+//   with HEAT: int number of heat tiles, then per tile: int chunk index, byte 1 if it isn't settled,
+//          the chunk's temperatures as floats, rows top to bottom
+//
+// a full snapshot has every chunk, an incremental one only those that could have changed since
+// the last save (and heat tiles that were worked on), so a checkpoint of a mostly sleeping board is a few bytes. loading reads the file
+// in one go and checks all of it first, so a corrupt or truncated file is turned down with the board untouched,
+// then decodes the runs straight into the board and rebuilds the live bits a chunk at a time.
+// saving and loading has to happen between ticks
+final class Snapshot {
+    static final int MAGIC = 0x534E4150; // "SNAP"
+    // 2: the heat section, 1 files (no heat) still load
+    static final short VERSION = 2;
+    static final byte HEAT = 2;
+    static final byte FULL = 0;
+    static final byte INCREMENTAL = 1;
+    static final byte RLE = 0;
+    static final byte RAW = 1;
+
+    private static final int HEADER = 4 + 2 + 1 + 1 + 4 + 4 + 8 + 8 + 4 * 8 + 4;
+    private static final int CHUNK = Grid.CHUNK;
+    // biggest a chunk record can get: a raw chunk, RLE is only used when it's less than half that
+    private static final int MAX_RECORD = 5 + CHUNK * CHUNK;
+    private static final int MAX_TILE = 5 + CHUNK * CHUNK * 4;
+
+    private Snapshot() {
+    }
+
+    static void write(SimulationEngine engine, Path file, boolean incremental) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(engine, channel, incremental);
+        }
+    }
+
+    static void write(SimulationEngine engine, FileChannel channel, boolean incremental) throws IOException {
+        write(engine, channel, incremental, true);
+    }
+
+    // a full snapshot at the channel's current position that doesn't count as a save, so the next
+    // incremental save still has everything since the last real one. for the start of a Recorder file
+    static void copy(SimulationEngine engine, FileChannel channel) throws IOException {
+        write(engine, channel, false, false);
+    }
+
+    private static void write(SimulationEngine engine, FileChannel channel, boolean incremental, boolean save) throws IOException {
+        Grid grid = engine.grid;
+        int[] chunks = new int[grid.chunksX * grid.chunksY];
+        int count = 0;
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            if ((save && grid.takeUnsaved(chunk)) || !incremental) {
+                chunks[count++] = chunk;
+            }
+        }
+
+        ByteBuffer buffer = engine.saveBuffer;
+        if (buffer == null) {
+            buffer = engine.saveBuffer = ByteBuffer.allocateDirect(Math.max(HEADER, 1 << 20));
+        }
+        buffer.clear();
+        HeatField heat = engine.heat;
+        buffer.putInt(MAGIC).putShort(VERSION).put(incremental ? INCREMENTAL : FULL)
+                .put((byte) ((engine.isDeterministic() ? 1 : 0) | (heat != null ? HEAT : 0)))
+                .putInt(grid.width).putInt(grid.height)
+                .putLong(engine.tick()).putLong(engine.seed());
+        for (long v : engine.paintRng.state()) {
+            buffer.putLong(v);
+        }
+        buffer.putInt(count);
+
+        byte[] cells = grid.cells();
+        for (int k = 0; k < count; k++) {
+            if (buffer.remaining() < MAX_RECORD) {
+                drain(buffer, channel);
+            }
+            encode(grid, cells, chunks[k], buffer);
+        }
+        if (heat != null) {
+            count = 0;
+            for (int chunk = 0; chunk < chunks.length; chunk++) {
+                if ((save && heat.takeUnsaved(chunk)) || !incremental) {
+                    chunks[count++] = chunk;
+                }
+            }
+            if (buffer.remaining() < 4) {
+                drain(buffer, channel);
+            }
+            buffer.putInt(count);
+            for (int k = 0; k < count; k++) {
+                if (buffer.remaining() < MAX_TILE) {
+                    drain(buffer, channel);
+                }
+                encodeHeat(grid, heat, chunks[k], buffer);
+            }
+        }
+        drain(buffer, channel);
+    }
+
+    private static void encodeHeat(Grid grid, HeatField heat, int chunk, ByteBuffer out) {
+        float[] temp = heat.temperatures();
+        int c0 = (chunk % grid.chunksX) * CHUNK;
+        int r0 = (chunk / grid.chunksX) * CHUNK;
+        int c1 = Math.min(c0 + CHUNK, grid.width);
+        int r1 = Math.min(r0 + CHUNK, grid.height);
+        out.putInt(chunk).put((byte) (heat.isWarm(chunk) ? 1 : 0));
+        for (int r = r0; r < r1; r++) {
+            for (int i = r * grid.width + c0; i < r * grid.width + c1; i++) {
+                out.putFloat(temp[i]);
+            }
+        }
+    }
+
+    private static void encode(Grid grid, byte[] cells, int chunk, ByteBuffer out) {
+        int c0 = (chunk % grid.chunksX) * CHUNK;
+        int r0 = (chunk / grid.chunksX) * CHUNK;
+        int c1 = Math.min(c0 + CHUNK, grid.width);
+        int r1 = Math.min(r0 + CHUNK, grid.height);
+        out.putInt(chunk);
+        int runs = 0;
+        for (int r = r0; r < r1; r++) {
+            int i = r * grid.width + c0;
+            int end = r * grid.width + c1;
+            runs++;
+            for (i++; i < end; i++) {
+                if (cells[i] != cells[i - 1]) {
+                    runs++;
+                }
+            }
+        }
+        // runs shorter than 4 cells on average: barely smaller than raw, and a lot slower to load
+        if (runs * 4 >= (r1 - r0) * (c1 - c0)) {
+            out.put(RAW);
+            for (int r = r0; r < r1; r++) {
+                out.put(cells, r * grid.width + c0, c1 - c0);
+            }
+            return;
+        }
+        out.put(RLE);
+        for (int r = r0; r < r1; r++) {
+            int i = r * grid.width + c0;
+            int end = r * grid.width + c1;
+            while (i < end) {
+                byte m = cells[i];
+                int run = 1;
+                while (i + run < end && cells[i + run] == m) {
+                    run++;
+                }
+                out.put(m).put((byte) (run - 1));
+                i += run;
+            }
+        }
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    static void read(SimulationEngine engine, Path file) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(slurp(file));
+        check(in, engine.grid);
+        header(in, engine);
+        chunks(in, engine, in.get(6) == FULL, in.get(7));
+    }
+
+    static SimulationEngine open(Path file, boolean parallel) throws IOException {
+        return open(ByteBuffer.wrap(slurp(file)), parallel);
+    }
+
+    // a full snapshot starting at in's position (in has to wrap a whole array), leaves the position after it
+    static SimulationEngine open(ByteBuffer in, boolean parallel) throws IOException {
+        int start = in.position();
+        if (in.limit() - start < HEADER || in.getInt(start) != MAGIC) {
+            throw new IOException("not a snapshot");
+        }
+        if (in.get(start + 6) != FULL) {
+            throw new IOException("an incremental snapshot, open the full one it goes on top of");
+        }
+        SimulationEngine engine = new SimulationEngine(in.getInt(start + 8), in.getInt(start + 12), parallel);
+        check(in, engine.grid);
+        header(in, engine);
+        chunks(in, engine, true, in.get(start + 7));
+        return engine;
+    }
+
+    // the whole file in one go; the runs are decoded straight out of the array,
+    // which is a lot faster than two ByteBuffer.get() calls per run
+    private static byte[] slurp(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too big for a snapshot");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+            return buffer.array();
+        }
+    }
+
+    // the whole snapshot at in's position, without loading any of it: throws if anything in it is wrong,
+    // leaves the position where it was
+    private static void check(ByteBuffer buffer, Grid grid) throws IOException {
+        int start = buffer.position();
+        byte[] in = buffer.array();
+        int end = buffer.limit();
+        if (end - start < HEADER || buffer.getInt(start) != MAGIC) {
+            throw new IOException("not a snapshot");
+        }
+        short version = buffer.getShort(start + 4);
+        if (version != 1 && version != VERSION) {
+            throw new IOException("unsupported snapshot version " + version);
+        }
+        int w = buffer.getInt(start + 8);
+        int h = buffer.getInt(start + 12);
+        if (w != grid.width || h != grid.height) {
+            throw new IOException("snapshot is " + w + "x" + h + ", board is " + grid.width + "x" + grid.height);
+        }
+        int total = grid.chunksX * grid.chunksY;
+        int count = buffer.getInt(start + HEADER - 4);
+        int p = start + HEADER;
+        for (int k = 0; k < count; k++) {
+            if (end - p < 5) {
+                throw new IOException("truncated snapshot");
+            }
+            int chunk = buffer.getInt(p);
+            if (chunk < 0 || chunk >= total) {
+                throw new IOException("corrupt snapshot: chunk " + chunk);
+            }
+            int cols = Math.min((chunk % grid.chunksX + 1) * CHUNK, grid.width) - (chunk % grid.chunksX) * CHUNK;
+            int rows = Math.min((chunk / grid.chunksX + 1) * CHUNK, grid.height) - (chunk / grid.chunksX) * CHUNK;
+            byte encoding = in[p + 4];
+            p += 5;
+            if (encoding == RAW) {
+                if (end - p < rows * cols) {
+                    throw new IOException("truncated snapshot");
+                }
+                for (int i = p; i < p + rows * cols; i++) {
+                    if (in[i] < 0 || in[i] >= Cell.COUNT) {
+                        throw new IOException("corrupt snapshot: material " + in[i] + " in chunk " + chunk);
+                    }
+                }
+                p += rows * cols;
+            } else if (encoding == RLE) {
+                for (int r = 0; r < rows; r++) {
+                    for (int c = 0; c < cols; ) {
+                        if (end - p < 2) {
+                            throw new IOException("truncated snapshot");
+                        }
+                        byte m = in[p];
+                        c += (in[p + 1] & 0xFF) + 1;
+                        p += 2;
+                        if (c > cols || m < 0 || m >= Cell.COUNT) {
+                            throw new IOException("corrupt snapshot: bad run in chunk " + chunk);
+                        }
+                    }
+                }
+            } else {
+                throw new IOException("corrupt snapshot: encoding " + encoding + " in chunk " + chunk);
+            }
+        }
+        if ((in[start + 7] & HEAT) != 0) {
+            if (end - p < 4) {
+                throw new IOException("truncated snapshot");
+            }
+            int tiles = buffer.getInt(p);
+            p += 4;
+            for (int k = 0; k < tiles; k++) {
+                if (end - p < 5) {
+                    throw new IOException("truncated snapshot");
+                }
+                int chunk = buffer.getInt(p);
+                if (chunk < 0 || chunk >= total) {
+                    throw new IOException("corrupt snapshot: heat tile " + chunk);
+                }
+                int cols = Math.min((chunk % grid.chunksX + 1) * CHUNK, grid.width) - (chunk % grid.chunksX) * CHUNK;
+                int rows = Math.min((chunk / grid.chunksX + 1) * CHUNK, grid.height) - (chunk / grid.chunksX) * CHUNK;
+                p += 5;
+                if (end - p < rows * cols * 4) {
+                    throw new IOException("truncated snapshot");
+                }
+                p += rows * cols * 4;
+            }
+        }
+    }
+
+    // after check(): the header, into the engine
+    private static void header(ByteBuffer in, SimulationEngine engine) {
+        in.position(in.position() + 7);
+        boolean deterministic = (in.get() & 1) != 0;
+        in.position(in.position() + 8);
+        long tick = in.getLong();
+        long seed = in.getLong();
+        long[] paintState = new long[4];
+        for (int k = 0; k < 4; k++) {
+            paintState[k] = in.getLong();
+        }
+        engine.restore(tick, seed, deterministic, paintState);
+    }
+
+    // after check() and header(): the chunk records and heat tiles, into the board
+    private static void chunks(ByteBuffer buffer, SimulationEngine engine, boolean full, byte flags) {
+        Grid grid = engine.grid;
+        byte[] in = buffer.array();
+        int count = buffer.getInt();
+        int p = buffer.position();
+        for (int k = 0; k < count; k++) {
+            int chunk = (in[p] & 0xFF) << 24 | (in[p + 1] & 0xFF) << 16 | (in[p + 2] & 0xFF) << 8 | (in[p + 3] & 0xFF);
+            p = in[p + 4] == RAW ? raw(in, p + 5, grid, chunk) : decode(in, p + 5, grid, chunk);
+            grid.reload(chunk);
+        }
+        buffer.position(p);
+        if ((flags & HEAT) != 0) {
+            heat(buffer, engine);
+        } else if (full && engine.heat != null) {
+            // saved without heat: everything starts at its material's temperature again
+            engine.heat.reset();
+        }
+        grid.recount();
+        grid.publish();
+    }
+
+    // the heat tiles, after the chunks they go with were loaded. skipped when the engine has no heat
+    private static void heat(ByteBuffer in, SimulationEngine engine) {
+        Grid grid = engine.grid;
+        HeatField heat = engine.heat;
+        int count = in.getInt();
+        for (int k = 0; k < count; k++) {
+            int chunk = in.getInt();
+            boolean warm = in.get() != 0;
+            int c0 = (chunk % grid.chunksX) * CHUNK;
+            int r0 = (chunk / grid.chunksX) * CHUNK;
+            int c1 = Math.min(c0 + CHUNK, grid.width);
+            int r1 = Math.min(r0 + CHUNK, grid.height);
+            if (heat == null) {
+                in.position(in.position() + (r1 - r0) * (c1 - c0) * 4);
+                continue;
+            }
+            float[] temp = heat.temperatures();
+            for (int r = r0; r < r1; r++) {
+                for (int i = r * grid.width + c0; i < r * grid.width + c1; i++) {
+                    temp[i] = in.getFloat();
+                }
+            }
+            heat.reload(chunk, warm);
+        }
+    }
+
+    private static int raw(byte[] in, int p, Grid grid, int chunk) {
+        byte[] cells = grid.cells();
+        int c0 = (chunk % grid.chunksX) * CHUNK;
+        int r0 = (chunk / grid.chunksX) * CHUNK;
+        int c1 = Math.min(c0 + CHUNK, grid.width);
+        int r1 = Math.min(r0 + CHUNK, grid.height);
+        for (int r = r0; r < r1; r++) {
+            System.arraycopy(in, p, cells, r * grid.width + c0, c1 - c0);
+            p += c1 - c0;
+        }
+        return p;
+    }
+
+    // the runs of one chunk, starting at in[p], into the board (check() made sure they fit).
+    // returns where the next record starts
+    private static int decode(byte[] in, int p, Grid grid, int chunk) {
+        byte[] cells = grid.cells();
+        int c0 = (chunk % grid.chunksX) * CHUNK;
+        int r0 = (chunk / grid.chunksX) * CHUNK;
+        int c1 = Math.min(c0 + CHUNK, grid.width);
+        int r1 = Math.min(r0 + CHUNK, grid.height);
+        for (int r = r0; r < r1; r++) {
+            int i = r * grid.width + c0;
+            int end = r * grid.width + c1;
+            while (i < end) {
+                byte m = in[p];
+                int run = (in[p + 1] & 0xFF) + 1;
+                p += 2;
+                if (run == 1) {
+                    cells[i] = m;
+                } else {
+                    Arrays.fill(cells, i, i + run, m);
+                }
+                i += run;
+            }
+        }
+        return p;
+    }
+}
@@ -0,0 +1,408 @@
+package com.company;
+
+import java.util.Arrays;
+
+// runs the rules on a ChunkWorld (a SparseWorld, or a PagedWorld on disk), one CHUNK x CHUNK leaf at a time.
+// only leaves that something woke up are worked on, and only the rect inside them that was woken, like the
+// chunks of a Grid. so a tick costs as much as the regions where something happens, not the whole world.
+// a leaf gets woken up by what moves next to it, wherever that is, and a PagedWorld pages it in when it's read
+//
+// the rules are the same Simulation as on a dense board: the leaf and the one cell ring around it
+// (all the rules ever look at) are copied into a small scratch Grid, the leaf is updated there as
+// that grid's only awake chunk, and whatever changed is copied back into the world. the scratch grid
+// ends where the world ends, so the edges of the world work like the edges of a board. the updated
+// bits of the cells a leaf touched are kept until the end of the tick, so a cell that moved into
+// the next leaf over doesn't move again when that one gets its turn
+//
+// DEFAULT rules only: leveling and heat work on a whole dense board at once. seeded per leaf and tick,
+// so the same world and the same seed always end up the same
+final class SparseEngine {
+    private static final int CHUNK = Grid.CHUNK;
+    private static final int SHIFT = Grid.CHUNK_SHIFT;
+    private static final int SCRAMBLE = 0x9E3779B9;
+    private static final int RECT = 4;
+    private static final int BITS = CHUNK * CHUNK / 64;
+
+    final ChunkWorld world;
+    private final long seed;
+    private final Rng rng = new Rng(0);
+    private long tick;
+
+    // scratch boards, one per combination of world edges a leaf can be on (see run)
+    private final Simulation[] scratch = new Simulation[16];
+    private final byte[] before = new byte[(CHUNK + 2) * (CHUNK + 2)];
+    private final byte[] after = new byte[(CHUNK + 2) * (CHUNK + 2)];
+
+    // leaves to work on next tick, with the rect of world cells woken in each: minX, minY, maxX, maxY
+    // (inclusive). the two tables take turns, one is worked on while the other collects for the next tick
+    private Leaves woken = new Leaves(RECT, 0);
+    private Leaves work = new Leaves(RECT, 0);
+    // sorted keys of work
+    private long[] order = new long[64];
+    // updated bits of this tick, CHUNK * CHUNK bits per leaf, only for leaves that have any
+    private final Leaves updated = new Leaves(0, BITS);
+    // leaves written this tick, the world hears about them at the end of it (see ChunkWorld.written)
+    private final Leaves written = new Leaves(0, 0);
+    // leaves that still have gas to move up this tick. anything that moved into a leaf after its
+    // down pass was marked updated, so a leaf with no gas left after it has nothing to do going up
+    private final Leaves rising = new Leaves(0, 0);
+
+    SparseEngine(ChunkWorld world, long seed) {
+        this.world = world;
+        this.seed = seed;
+    }
+
+    long tick() {
+        return tick;
+    }
+
+    // leaves that were woken up for the next tick
+    int awakeLeaves() {
+        return woken.size();
+    }
+
+    // bottom leaf rows first, like the chunks of a dense board (inside a row the order is fixed, but mixed up)
+    void step() {
+        Leaves t = work;
+        work = woken;
+        woken = t;
+        woken.clear();
+        int n = work.size();
+        if (order.length < n) {
+            order = new long[Math.max(n, order.length * 2)];
+        }
+        for (int k = 0; k < n; k++) {
+            order[k] = work.key(k);
+        }
+        Arrays.sort(order, 0, n);
+        for (int k = n - 1; k >= 0; k--) {
+            run(order[k], work.find(order[k]) * RECT, true);
+        }
+        // up ^^^^
+        for (int k = n - 1; k >= 0; k--) {
+            if (rising.find(order[k]) >= 0) {
+                run(order[k], work.find(order[k]) * RECT, false);
+            }
+        }
+        rising.clear();
+        for (int k = 0; k < written.size(); k++) {
+            long key = written.key(k);
+            world.written(cx(key), cy(key), tick);
+        }
+        written.clear();
+        updated.clear();
+        tick++;
+    }
+
+    void step(int n) {
+        for (int i = 0; i < n; i++) {
+            step();
+        }
+    }
+
+    void set(int x, int y, Material m) {
+        if (world.get(x, y) != m.id) {
+            world.set(x, y, m.id);
+            wake(x, y, x, y);
+            written.put(key(x >> SHIFT, y >> SHIFT));
+        }
+    }
+
+    // copies a w x h board (row by row, like Grid.cells()) into the world with its top left corner at (x0, y0)
+    void write(int x0, int y0, int w, int h, byte[] cells) {
+        for (int r = 0; r < h; r++) {
+            for (int c = 0; c < w; c++) {
+                world.set(x0 + c, y0 + r, cells[r * w + c]);
+            }
+        }
+        for (int cy = y0 >> SHIFT; cy <= (y0 + h - 1) >> SHIFT; cy++) {
+            for (int cx = x0 >> SHIFT; cx <= (x0 + w - 1) >> SHIFT; cx++) {
+                world.written(cx, cy, tick);
+            }
+        }
+        wake(x0, y0, x0 + w - 1, y0 + h - 1);
+    }
+
+    // the cells x0..x1, y0..y1 and the one cell ring around them, as far as that is inside the world
+    private void wake(int x0, int y0, int x1, int y1) {
+        x0--;
+        x1++;
+        y0--;
+        y1++;
+        for (int cy = y0 >> SHIFT; cy <= y1 >> SHIFT; cy++) {
+            for (int cx = x0 >> SHIFT; cx <= x1 >> SHIFT; cx++) {
+                if (world.contains(cx, cy)) {
+                    expand(cx, cy, Math.max(x0, cx * CHUNK), Math.max(y0, cy * CHUNK),
+                            Math.min(x1, cx * CHUNK + CHUNK - 1), Math.min(y1, cy * CHUNK + CHUNK - 1));
+                }
+            }
+        }
+    }
+
+    // grows the woken rect of leaf (cx, cy), the cells have to be inside it
+    private void expand(int cx, int cy, int x0, int y0, int x1, int y1) {
+        int n = woken.size();
+        int at = woken.put(key(cx, cy)) * RECT;
+        int[] rect = woken.ints;
+        if (woken.size() > n) {
+            rect[at] = x0;
+            rect[at + 1] = y0;
+            rect[at + 2] = x1;
+            rect[at + 3] = y1;
+            return;
+        }
+        rect[at] = Math.min(rect[at], x0);
+        rect[at + 1] = Math.min(rect[at + 1], y0);
+        rect[at + 2] = Math.max(rect[at + 2], x1);
+        rect[at + 3] = Math.max(rect[at + 3], y1);
+    }
+
+    // works on the rect of leaf key (at "at" in work's ints), the whole tick's rect for both passes
+    // like a Grid's dirty rect
+    private void run(long key, int at, boolean down) {
+        // work doesn't change during a tick, woken does
+        int[] rect = work.ints;
+        int cx = cx(key);
+        int cy = cy(key);
+        // the scratch board is the leaf plus whichever of its neighbours are inside the world
+        boolean left = world.contains(cx - 1, cy);
+        boolean right = world.contains(cx + 1, cy);
+        boolean top = world.contains(cx, cy - 1);
+        boolean bottom = world.contains(cx, cy + 1);
+        int shape = (left ? 1 : 0) | (right ? 2 : 0) | (top ? 4 : 0) | (bottom ? 8 : 0);
+        Simulation simulation = scratch[shape];
+        if (simulation == null) {
+            int w = CHUNK * (1 + (left ? 1 : 0) + (right ? 1 : 0));
+            int h = CHUNK * (1 + (top ? 1 : 0) + (bottom ? 1 : 0));
+            simulation = new Simulation(new Grid(w, h, false, MaterialTable.DEFAULT.active), MaterialTable.DEFAULT);
+            scratch[shape] = simulation;
+        }
+        Grid grid = simulation.grid;
+        // world position of the scratch board's top left cell
+        int ox = (left ? cx - 1 : cx) * CHUNK;
+        int oy = (top ? cy - 1 : cy) * CHUNK;
+        // the leaf and its ring, in world cells
+        int x0 = cx * CHUNK - (left ? 1 : 0);
+        int y0 = cy * CHUNK - (top ? 1 : 0);
+        int w = CHUNK + (left ? 1 : 0) + (right ? 1 : 0);
+        int h = CHUNK + (top ? 1 : 0) + (bottom ? 1 : 0);
+
+        world.read(x0, y0, w, h, before);
+        grid.load(y0 - oy, x0 - ox, h, w, before);
+        int chunk = (top ? grid.chunksX : 0) + (left ? 1 : 0);
+        grid.focus(chunk, rect[at] - ox, rect[at + 1] - oy, rect[at + 2] - ox, rect[at + 3] - oy);
+        // the rules only ask whether a cell they're about to work on was updated, and those are all in rect
+        int bits = updated.find(key);
+        if (bits >= 0) {
+            restore(grid, updated.longs, bits * BITS, cx, cy, rect[at + 1], rect[at + 3], ox, oy);
+        }
+
+        rng.seed(Rng.mix(seed, tick, key * 2 + (down ? 0 : 1)));
+        if (down) {
+            simulation.updateChunkDown(chunk, rng);
+            if (hasGas(grid, rect, at, ox, oy)) {
+                rising.put(key);
+            }
+        } else {
+            simulation.updateChunkUp(chunk, rng);
+        }
+
+        // back into the world, one leaf of the ring at a time
+        grid.readRect(y0 - oy, x0 - ox, h, w, after);
+        for (int ny = y0 >> SHIFT; ny <= (y0 + h - 1) >> SHIFT; ny++) {
+            for (int nx = x0 >> SHIFT; nx <= (x0 + w - 1) >> SHIFT; nx++) {
+                store(nx, ny, x0, y0, w, h);
+            }
+        }
+        // the rules mark what they moved, which can be one cell past rect
+        int uy0 = Math.max(rect[at + 1] - 1, y0);
+        int uy1 = Math.min(rect[at + 3] + 1, y0 + h - 1);
+        for (int ny = uy0 >> SHIFT; ny <= uy1 >> SHIFT; ny++) {
+            for (int nx = Math.max(rect[at] - 1, x0) >> SHIFT; nx <= Math.min(rect[at + 2] + 1, x0 + w - 1) >> SHIFT; nx++) {
+                keep(grid, nx, ny, uy0, uy1, ox, oy);
+            }
+        }
+        int[] next = grid.woken();
+        for (int k = 0; k < grid.chunksX * grid.chunksY; k++) {
+            int i = k << 2;
+            if (next[i] <= next[i + 2]) {
+                expand((ox >> SHIFT) + k % grid.chunksX, (oy >> SHIFT) + k / grid.chunksX,
+                        next[i] + ox, next[i + 1] + oy, next[i + 2] + ox, next[i + 3] + oy);
+            }
+        }
+    }
+
+    // gas in rect that didn't move yet
+    private static boolean hasGas(Grid grid, int[] rect, int at, int ox, int oy) {
+        byte[] movement = MaterialTable.DEFAULT.movement;
+        for (int y = rect[at + 1]; y <= rect[at + 3]; y++) {
+            int row = (y - oy) * grid.width - ox;
+            for (int x = rect[at]; x <= rect[at + 2]; x++) {
+                if (movement[grid.get(row + x)] == MaterialTable.GAS && !grid.isUpdated(row + x)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // the part of leaf (nx, ny) inside the ring, where after differs from before
+    private void store(int nx, int ny, int x0, int y0, int w, int h) {
+        int c0 = Math.max(x0, nx * CHUNK);
+        int c1 = Math.min(x0 + w, (nx + 1) * CHUNK);
+        byte[] cells = null;
+        for (int y = Math.max(y0, ny * CHUNK); y < Math.min(y0 + h, (ny + 1) * CHUNK); y++) {
+            int i = (y - y0) * w - x0;
+            if (Arrays.mismatch(before, i + c0, i + c1, after, i + c0, i + c1) < 0) {
+                continue;
+            }
+            if (cells == null) {
+                cells = world.cells(nx, ny);
+                written.put(key(nx, ny));
+            }
+            System.arraycopy(after, i + c0, cells, (y - ny * CHUNK) * CHUNK + c0 - nx * CHUNK, c1 - c0);
+        }
+    }
+
+    // the updated bits leaf (cx, cy) already has this tick in rows y0..y1, CHUNK bits per row, two rows per long
+    // from bits[at] on
+    private static void restore(Grid grid, long[] bits, int at, int cx, int cy, int y0, int y1, int ox, int oy) {
+        for (int y = y0; y <= y1; y++) {
+            int r = y - cy * CHUNK;
+            long row = (bits[at + (r >> 1)] >>> ((r & 1) * CHUNK)) & 0xFFFFFFFFL;
+            if (row != 0) {
+                grid.markUpdatedRow((y - oy) * grid.width + cx * CHUNK - ox, row);
+            }
+        }
+    }
+
+    // the other way round: remembers which cells of leaf (nx, ny) in rows y0..y1 got updated.
+    // the scratch board had its bits cleared before, so anything set there is this leaf's
+    private void keep(Grid grid, int nx, int ny, int y0, int y1, int ox, int oy) {
+        int at = -1;
+        for (int y = Math.max(y0, ny * CHUNK); y <= Math.min(y1, (ny + 1) * CHUNK - 1); y++) {
+            long row = grid.updatedRow((y - oy) * grid.width + nx * CHUNK - ox);
+            if (row == 0) {
+                continue;
+            }
+            if (at < 0) {
+                at = updated.put(key(nx, ny)) * BITS;
+            }
+            int r = y - ny * CHUNK;
+            updated.longs[at + (r >> 1)] |= row << ((r & 1) * CHUNK);
+        }
+    }
+
+    // row in the high half, so sorted keys go row by row. the column is scrambled with the row, which
+    // fixes the order leaves of a row are worked on in (see step)
+    private static long key(int cx, int cy) {
+        return ((long) cy << 32) | ((cx ^ cy * SCRAMBLE) & 0xFFFFFFFFL);
+    }
+
+    private static int cx(long key) {
+        return (int) key ^ cy(key) * SCRAMBLE;
+    }
+
+    private static int cy(long key) {
+        return (int) (key >>> 32);
+    }
+
+    // leaves by key, open addressing over primitive arrays: no boxed keys, and the per leaf data (ints and
+    // longs per leaf, zeroed when a leaf goes in) sits in two flat arrays, reused from tick to tick.
+    // a slot stays where it is until the table grows, so don't hold on to one across a put
+    private static final class Leaves {
+        private final int intsPer;
+        private final int longsPer;
+        private long[] keys;
+        private boolean[] used;
+        // slot of the n-th key put in, for going through the keys and for clearing
+        private int[] slots;
+        private int size;
+        int[] ints;
+        long[] longs;
+
+        Leaves(int intsPer, int longsPer) {
+            this.intsPer = intsPer;
+            this.longsPer = longsPer;
+            allocate(64);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            used = new boolean[capacity];
+            slots = new int[capacity / 2];
+            ints = new int[capacity * intsPer];
+            longs = new long[capacity * longsPer];
+        }
+
+        int size() {
+            return size;
+        }
+
+        // the n-th key put in since the last clear
+        long key(int n) {
+            return keys[slots[n]];
+        }
+
+        // slot of key, -1 if it isn't in
+        int find(long key) {
+            int mask = keys.length - 1;
+            for (int s = hash(key) & mask; used[s]; s = (s + 1) & mask) {
+                if (keys[s] == key) {
+                    return s;
+                }
+            }
+            return -1;
+        }
+
+        // slot of key, put in with zeroed data if it isn't in yet
+        int put(long key) {
+            int mask = keys.length - 1;
+            int s = hash(key) & mask;
+            for (; used[s]; s = (s + 1) & mask) {
+                if (keys[s] == key) {
+                    return s;
+                }
+            }
+            if (size == slots.length) {
+                grow();
+                return put(key);
+            }
+            used[s] = true;
+            keys[s] = key;
+            Arrays.fill(ints, s * intsPer, (s + 1) * intsPer, 0);
+            Arrays.fill(longs, s * longsPer, (s + 1) * longsPer, 0);
+            slots[size++] = s;
+            return s;
+        }
+
+        // at most half full, so a look up ends at a free slot soon
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldSlots = slots;
+            int[] oldInts = ints;
+            long[] oldLongs = longs;
+            int n = size;
+            allocate(keys.length * 2);
+            size = 0;
+            for (int k = 0; k < n; k++) {
+                int from = oldSlots[k];
+                int to = put(oldKeys[from]);
+                System.arraycopy(oldInts, from * intsPer, ints, to * intsPer, intsPer);
+                System.arraycopy(oldLongs, from * longsPer, longs, to * longsPer, longsPer);
+            }
+        }
+
+        void clear() {
+            for (int k = 0; k < size; k++) {
+                used[slots[k]] = false;
+            }
+            size = 0;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ h >>> 32);
+        }
+    }
+}
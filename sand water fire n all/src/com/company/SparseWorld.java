@@ -0,0 +1,263 @@
+package com.company;
+
+import java.util.Arrays;
+
+// a big square world kept as a quadtree: a region that's all one material is a single node, however
+// big it is, and only regions where materials actually vary get split, down to CHUNK x CHUNK leaves
+// that hold their cells in a byte[]. a mostly empty world costs memory for the detailed leaves only,
+// not for its area
+//
+// all uniform nodes of a material are the same shared object, so splitting or collapsing one is
+// just swapping a reference. set() splits as needed, collapse() joins a leaf that became uniform
+// back up into its parent (and further up while four siblings agree); set() doesn't do that itself,
+// checking a whole leaf on every write would cost more than the write
+//
+// not thread safe, SparseEngine steps it on one thread
+final class SparseWorld implements ChunkWorld {
+    static final int CHUNK = Grid.CHUNK;
+
+    private static final Node[] UNIFORM = new Node[Cell.COUNT];
+
+    static {
+        for (int m = 0; m < Cell.COUNT; m++) {
+            UNIFORM[m] = new Node((byte) m);
+        }
+    }
+
+    // cells per side, CHUNK << depth
+    final int size;
+    // leaves per side
+    final int leaves;
+    // the root covers CHUNK << depth cells per side, a leaf is at depth 0
+    private final int depth;
+    private Node root;
+
+    // nodes that exist on their own: detailed leaves and branches (the uniform ones are shared)
+    private int detailed;
+    private int branches;
+
+    // size: cells per side, CHUNK times a power of two
+    SparseWorld(int size) {
+        if (size < CHUNK || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("world size has to be a power of two of at least " + CHUNK + ", not " + size);
+        }
+        this.size = size;
+        leaves = size / CHUNK;
+        depth = Integer.numberOfTrailingZeros(leaves);
+        root = UNIFORM[Cell.EMPTY];
+    }
+
+    // either uniform (material, no kids, no cells), a branch (4 kids: top left, top right, bottom left,
+    // bottom right) or a detailed leaf (cells, row by row)
+    private static final class Node {
+        final byte material;
+        Node[] kids;
+        byte[] cells;
+
+        Node(byte material) {
+            this.material = material;
+        }
+
+        boolean uniform() {
+            return kids == null && cells == null;
+        }
+    }
+
+    @Override
+    public boolean contains(int cx, int cy) {
+        return cx >= 0 && cy >= 0 && cx < leaves && cy < leaves;
+    }
+
+    @Override
+    public byte get(int x, int y) {
+        Node node = root;
+        for (int level = depth; !node.uniform(); level--) {
+            if (node.cells != null) {
+                return node.cells[(y & (CHUNK - 1)) * CHUNK + (x & (CHUNK - 1))];
+            }
+            node = node.kids[kid(x, y, level)];
+        }
+        return node.material;
+    }
+
+    @Override
+    public void set(int x, int y, byte m) {
+        root = set(root, depth, x, y, m);
+    }
+
+    private Node set(Node node, int level, int x, int y, byte m) {
+        if (node.uniform()) {
+            if (node.material == m) {
+                return node;
+            }
+            node = split(node, level);
+        }
+        if (node.cells != null) {
+            node.cells[(y & (CHUNK - 1)) * CHUNK + (x & (CHUNK - 1))] = m;
+        } else {
+            int k = kid(x, y, level);
+            node.kids[k] = set(node.kids[k], level - 1, x, y, m);
+        }
+        return node;
+    }
+
+    // the cells of leaf (cx, cy), to write into directly: if it's uniform it gets split into
+    // a detailed leaf first. collapse() it afterwards if it could have become uniform
+    @Override
+    public byte[] cells(int cx, int cy) {
+        int x = cx << Grid.CHUNK_SHIFT;
+        int y = cy << Grid.CHUNK_SHIFT;
+        if (root.uniform()) {
+            root = split(root, depth);
+        }
+        Node node = root;
+        for (int level = depth; level > 0; level--) {
+            int k = kid(x, y, level);
+            if (node.kids[k].uniform()) {
+                node.kids[k] = split(node.kids[k], level - 1);
+            }
+            node = node.kids[k];
+        }
+        return node.cells;
+    }
+
+    // a uniform node turned into a detailed leaf or a branch of 4 uniform kids, same material
+    private Node split(Node uniform, int level) {
+        Node node = new Node(uniform.material);
+        if (level == 0) {
+            node.cells = new byte[CHUNK * CHUNK];
+            Arrays.fill(node.cells, uniform.material);
+            detailed++;
+        } else {
+            node.kids = new Node[]{uniform, uniform, uniform, uniform};
+            branches++;
+        }
+        return node;
+    }
+
+    // which kid of a node at this level (x, y) falls into
+    private static int kid(int x, int y, int level) {
+        int shift = Grid.CHUNK_SHIFT + level - 1;
+        return ((x >> shift) & 1) | (((y >> shift) & 1) << 1);
+    }
+
+    // a written leaf might have become uniform. when doesn't matter here
+    @Override
+    public void written(int cx, int cy, long tick) {
+        collapse(cx, cy);
+    }
+
+    // if leaf (cx, cy) is all one material now, it goes back to being a shared uniform node,
+    // and so does every parent whose 4 kids end up the same uniform node
+    void collapse(int cx, int cy) {
+        root = collapse(root, depth, cx << Grid.CHUNK_SHIFT, cy << Grid.CHUNK_SHIFT);
+    }
+
+    private Node collapse(Node node, int level, int x, int y) {
+        if (node.uniform()) {
+            return node;
+        }
+        if (node.cells != null) {
+            byte m = node.cells[0];
+            for (byte cell : node.cells) {
+                if (cell != m) {
+                    return node;
+                }
+            }
+            detailed--;
+            return UNIFORM[m];
+        }
+        int k = kid(x, y, level);
+        Node[] kids = node.kids;
+        kids[k] = collapse(kids[k], level - 1, x, y);
+        if (kids[0].uniform() && kids[1] == kids[0] && kids[2] == kids[0] && kids[3] == kids[0]) {
+            branches--;
+            return kids[0];
+        }
+        return node;
+    }
+
+    // copies the w x h rect with its top left corner at (x0, y0) into dst, row by row.
+    // uniform nodes are filled in, without looking at their cells one by one
+    @Override
+    public void read(int x0, int y0, int w, int h, byte[] dst) {
+        read(root, depth, 0, 0, x0, y0, w, h, dst);
+    }
+
+    // node covers (nx, ny) and CHUNK << level cells to the right and down
+    private void read(Node node, int level, int nx, int ny, int x0, int y0, int w, int h, byte[] dst) {
+        int side = CHUNK << level;
+        int c0 = Math.max(x0, nx);
+        int c1 = Math.min(x0 + w, nx + side);
+        int r0 = Math.max(y0, ny);
+        int r1 = Math.min(y0 + h, ny + side);
+        if (c0 >= c1 || r0 >= r1) {
+            return;
+        }
+        if (node.uniform()) {
+            for (int r = r0; r < r1; r++) {
+                int row = (r - y0) * w - x0;
+                Arrays.fill(dst, row + c0, row + c1, node.material);
+            }
+        } else if (node.cells != null) {
+            for (int r = r0; r < r1; r++) {
+                System.arraycopy(node.cells, (r - ny) * CHUNK + c0 - nx, dst, (r - y0) * w + c0 - x0, c1 - c0);
+            }
+        } else {
+            int half = side >> 1;
+            read(node.kids[0], level - 1, nx, ny, x0, y0, w, h, dst);
+            read(node.kids[1], level - 1, nx + half, ny, x0, y0, w, h, dst);
+            read(node.kids[2], level - 1, nx, ny + half, x0, y0, w, h, dst);
+            read(node.kids[3], level - 1, nx + half, ny + half, x0, y0, w, h, dst);
+        }
+    }
+
+    // the same for drawing: the w x h rect at (x0, y0) as ARGB pixels through palette, a uniform
+    // node is one fill per row whatever its size, and nodes outside the rect aren't visited at all
+    void render(int x0, int y0, int w, int h, int[] palette, int[] pixels) {
+        render(root, depth, 0, 0, x0, y0, w, h, palette, pixels);
+    }
+
+    private void render(Node node, int level, int nx, int ny, int x0, int y0, int w, int h, int[] palette, int[] pixels) {
+        int side = CHUNK << level;
+        int c0 = Math.max(x0, nx);
+        int c1 = Math.min(x0 + w, nx + side);
+        int r0 = Math.max(y0, ny);
+        int r1 = Math.min(y0 + h, ny + side);
+        if (c0 >= c1 || r0 >= r1) {
+            return;
+        }
+        if (node.uniform()) {
+            int argb = palette[node.material];
+            for (int r = r0; r < r1; r++) {
+                int row = (r - y0) * w - x0;
+                Arrays.fill(pixels, row + c0, row + c1, argb);
+            }
+        } else if (node.cells != null) {
+            for (int r = r0; r < r1; r++) {
+                int from = (r - ny) * CHUNK - nx;
+                int to = (r - y0) * w - x0;
+                for (int c = c0; c < c1; c++) {
+                    pixels[to + c] = palette[node.cells[from + c]];
+                }
+            }
+        } else {
+            int half = side >> 1;
+            render(node.kids[0], level - 1, nx, ny, x0, y0, w, h, palette, pixels);
+            render(node.kids[1], level - 1, nx + half, ny, x0, y0, w, h, palette, pixels);
+            render(node.kids[2], level - 1, nx, ny + half, x0, y0, w, h, palette, pixels);
+            render(node.kids[3], level - 1, nx + half, ny + half, x0, y0, w, h, palette, pixels);
+        }
+    }
+
+    // leaves that hold their own cells
+    int detailedLeaves() {
+        return detailed;
+    }
+
+    // roughly what the tree takes on the heap: a detailed leaf is its cells plus a node,
+    // a branch a node plus its 4 kid references
+    long bytes() {
+        return detailed * (CHUNK * CHUNK + 48L) + branches * 56L;
+    }
+}
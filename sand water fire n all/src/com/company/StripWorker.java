@@ -0,0 +1,335 @@
+package com.company;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+// one process of a distributed run (see Coordinator): owns a strip of whole chunk rows of the board
+// and simulates it with DEFAULT rules, talking to the workers of the strips above and below it directly
+//
+//   java com.company.StripWorker --coordinator host:port [--listen 0]
+//
+// the strip's Grid has one extra chunk row on each side that isn't its own. only the row right next to
+// the strip is kept up to date there (the rules never look further than one cell), the rest stays EMPTY,
+// it's only there so the chunks line up with the whole board's
+//
+// chunk rows of the same parity never touch the same cells, and of two chunk rows on either side of a
+// strip border one is even and one is odd. so a tick goes: even chunk rows, exchange, odd chunk rows,
+// exchange, the same again for the up pass. in each of those halves only one side can have written the
+// two rows at a border, and what it sends is the cells there it changed, their updated bits, and what
+// it woke on the other side. with reseeding going by whole board chunk numbers (Simulation.firstChunkRow),
+// a seeded run comes out exactly like one Simulation on the whole board
+//
+// messages (see Link), all numbers big endian:
+//   HELLO   worker -> coordinator: int port the worker above connects to
+//   SETUP   coordinator -> worker: int index, int workers, int width, int height, int row0, int row1
+//           (its rows, row1 not included), long seed, long tick, byte 1 and the worker below's address
+//           (short length, host, int port) or byte 0, then the cells of rows row0 - 1 until row1 + 1
+//           (as far as the board goes)
+//   READY   worker -> coordinator, when it's connected to its neighbours
+//   TICK    coordinator -> worker: int ticks to run, answered with DONE: long tick after them
+//   FRAME   coordinator -> worker, answered with a FRAME: the cells of rows row0 until row1
+//   STOP    coordinator -> worker
+//   HALO    worker -> worker, see exchange()
+public class StripWorker {
+    static final int HELLO = 1;
+    static final int SETUP = 2;
+    static final int READY = 3;
+    static final int TICK = 4;
+    static final int DONE = 5;
+    static final int FRAME = 6;
+    static final int STOP = 7;
+    static final int HALO = 8;
+
+    private static final int CHUNK = Grid.CHUNK;
+
+    private final Grid grid;
+    private final Simulation simulation;
+    private final int width;
+    // own rows, in whole board rows
+    private final int row0;
+    private final int row1;
+    // the whole board row of grid row 0
+    private final int top;
+    // own chunk rows, in grid chunk rows
+    private final int cy0;
+    private final int cy1;
+
+    private final Selector peers;
+    // null at the top / bottom of the board
+    private final Border above;
+    private final Border below;
+
+    // one side of the strip: the own row along it, the other worker's row across it, and the
+    // link to that worker
+    private final class Border {
+        final Link link;
+        // whole board rows
+        final int own;
+        final int halo;
+        // the grid chunk row of the other worker's rows along the border
+        final int haloChunks;
+        // both rows as they were after the last exchange, to find what changed since
+        final byte[] ownWas;
+        final byte[] haloWas;
+
+        Border(Link link, int own, int halo) {
+            this.link = link;
+            this.own = own;
+            this.halo = halo;
+            haloChunks = (halo - top) >> Grid.CHUNK_SHIFT;
+            ownWas = new byte[width];
+            haloWas = new byte[width];
+            grid.readRect(own - top, 0, 1, width, ownWas);
+            grid.readRect(halo - top, 0, 1, width, haloWas);
+        }
+
+        // the cells of the own and the halo row that changed since the last exchange, the updated bits
+        // of both, and the rects woken in the other worker's chunk row
+        ByteBuffer halo() {
+            int words = (width + 31) >> 5;
+            ByteBuffer m = Link.message(HALO, 2 * (4 + 5 * width + 8 * words) + 4 + grid.chunksX * 20);
+            changes(m, own, ownWas);
+            changes(m, halo, haloWas);
+            updated(m, own);
+            updated(m, halo);
+            int[] woken = grid.woken();
+            int count = m.position();
+            m.putInt(0);
+            int n = 0;
+            for (int cx = 0; cx < grid.chunksX; cx++) {
+                int k = (haloChunks * grid.chunksX + cx) << 2;
+                if (woken[k] <= woken[k + 2]) {
+                    m.putInt(cx).putInt(woken[k]).putInt(woken[k + 1] + top).putInt(woken[k + 2]).putInt(woken[k + 3] + top);
+                    n++;
+                }
+            }
+            m.putInt(count, n);
+            return m;
+        }
+
+        private void changes(ByteBuffer m, int row, byte[] was) {
+            int count = m.position();
+            m.putInt(0);
+            int n = 0;
+            int i = (row - top) * width;
+            for (int c = 0; c < width; c++) {
+                byte is = grid.get(i + c);
+                if (is != was[c]) {
+                    m.putInt(c).put(is);
+                    was[c] = is;
+                    n++;
+                }
+            }
+            m.putInt(count, n);
+        }
+
+        private void updated(ByteBuffer m, int row) {
+            int i = (row - top) * width;
+            for (int c = 0; c < width; c += 32) {
+                long bits = grid.updatedRow(i + c);
+                if (c + 32 > width) {
+                    bits &= (1L << (width - c)) - 1;
+                }
+                m.putInt((int) bits);
+            }
+        }
+
+        // the other worker's message: its own row is this one's halo and the other way round
+        void apply(ByteBuffer m) {
+            apply(m, halo, haloWas);
+            apply(m, own, ownWas);
+            mark(m, halo);
+            mark(m, own);
+            for (int n = m.getInt(); n > 0; n--) {
+                int cx = m.getInt();
+                int c0 = m.getInt();
+                int r0 = m.getInt() - top;
+                int c1 = m.getInt();
+                int r1 = m.getInt() - top;
+                grid.wake((r0 >> Grid.CHUNK_SHIFT) * grid.chunksX + cx, c0, r0, c1, r1);
+            }
+        }
+
+        private void apply(ByteBuffer m, int row, byte[] was) {
+            int i = (row - top) * width;
+            for (int n = m.getInt(); n > 0; n--) {
+                int c = m.getInt();
+                byte is = m.get();
+                grid.mirror(i + c, is);
+                was[c] = is;
+            }
+        }
+
+        private void mark(ByteBuffer m, int row) {
+            int i = (row - top) * width;
+            for (int c = 0; c < width; c += 32) {
+                long bits = m.getInt() & 0xFFFFFFFFL;
+                if (bits != 0) {
+                    grid.markUpdatedRow(i + c, bits);
+                }
+            }
+        }
+    }
+
+    private StripWorker(ByteBuffer setup, ServerSocketChannel listener) throws IOException {
+        setup.getInt(); // index
+        setup.getInt(); // workers
+        width = setup.getInt();
+        int height = setup.getInt();
+        row0 = setup.getInt();
+        row1 = setup.getInt();
+        long seed = setup.getLong();
+        long tick = setup.getLong();
+        InetSocketAddress next = null;
+        if (setup.get() != 0) {
+            byte[] host = new byte[setup.getShort()];
+            setup.get(host);
+            next = new InetSocketAddress(InetAddress.getByName(new String(host, StandardCharsets.UTF_8)), setup.getInt());
+        }
+
+        top = Math.max(row0 - CHUNK, 0);
+        int bottom = Math.min(row1 + CHUNK, height);
+        grid = new Grid(width, bottom - top, false, MaterialTable.DEFAULT.active);
+        simulation = new Simulation(grid, MaterialTable.DEFAULT);
+        simulation.deterministic(seed);
+        simulation.tick = tick;
+        simulation.firstChunkRow = top >> Grid.CHUNK_SHIFT;
+        cy0 = (row0 - top) >> Grid.CHUNK_SHIFT;
+        cy1 = (row1 - top + CHUNK - 1) >> Grid.CHUNK_SHIFT;
+
+        // the strip and the rows along it, and all of the strip awake, as after Grid.fill
+        int from = Math.max(row0 - 1, 0);
+        int to = Math.min(row1 + 1, height);
+        byte[] cells = new byte[(to - from) * width];
+        setup.get(cells);
+        grid.load(from - top, 0, to - from, width, cells);
+        for (int cy = cy0; cy < cy1; cy++) {
+            for (int cx = 0; cx < grid.chunksX; cx++) {
+                grid.wake(cy * grid.chunksX + cx, cx * CHUNK, cy * CHUNK,
+                        Math.min((cx + 1) * CHUNK, width) - 1, Math.min((cy + 1) * CHUNK, grid.height) - 1);
+            }
+        }
+
+        // connect down first: that goes through on the listen backlog even before the worker below
+        // gets to accept, so nobody waits for anybody in a circle
+        peers = Selector.open();
+        below = next == null ? null : new Border(new Link(SocketChannel.open(next), peers), row1 - 1, row1);
+        above = row0 == 0 ? null : new Border(new Link(listener.accept(), peers), row0, row0 - 1);
+        listener.close();
+    }
+
+    private void tick() throws IOException {
+        grid.beginTick();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int half = 0; half < 2; half++) {
+                simulation.phase(half * 2, pass == 0, cy0, cy1);
+                simulation.phase(half * 2 + 1, pass == 0, cy0, cy1);
+                exchange();
+            }
+        }
+        grid.endTick();
+        // endTick only clears the updated bits around its own dirty rects, the other worker's
+        // writes into the strip can be anywhere along the border
+        for (Border b : new Border[]{above, below}) {
+            if (b != null) {
+                grid.clearUpdatedRow(b.own - top);
+                grid.clearUpdatedRow(b.halo - top);
+            }
+        }
+        simulation.tick++;
+    }
+
+    // sends both neighbours what changed along their border, and takes in what changed along it on their side
+    private void exchange() throws IOException {
+        if (above != null && below != null) {
+            above.link.send(above.halo());
+            below.link.send(below.halo());
+            ByteBuffer[] got = Link.await(peers, above.link, below.link);
+            above.apply(halo(got[0]));
+            below.apply(halo(got[1]));
+        } else if (above != null) {
+            above.link.send(above.halo());
+            above.apply(halo(Link.await(peers, above.link)[0]));
+        } else if (below != null) {
+            below.link.send(below.halo());
+            below.apply(halo(Link.await(peers, below.link)[0]));
+        }
+    }
+
+    private static ByteBuffer halo(ByteBuffer m) throws IOException {
+        if (m.getInt() != HALO) {
+            throw new IOException("expected a halo from the neighbouring worker");
+        }
+        return m;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String coordinator = null;
+        int listen = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--coordinator":
+                    coordinator = args[++i];
+                    break;
+                case "--listen":
+                    listen = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+        if (coordinator == null) {
+            System.err.println("usage: StripWorker --coordinator host:port [--listen port]");
+            System.exit(2);
+        }
+
+        int colon = coordinator.lastIndexOf(':');
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(
+                coordinator.substring(0, colon), Integer.parseInt(coordinator.substring(colon + 1))));
+        ServerSocketChannel listener = ServerSocketChannel.open().bind(new InetSocketAddress(listen));
+        Selector selector = Selector.open();
+        Link link = new Link(channel, selector);
+
+        ByteBuffer hello = Link.message(HELLO, 4);
+        hello.putInt(((InetSocketAddress) listener.getLocalAddress()).getPort());
+        link.send(hello);
+        StripWorker worker = new StripWorker(Link.expect(selector, link, SETUP), listener);
+        link.send(Link.message(READY, 0));
+
+        while (true) {
+            ByteBuffer m = Link.await(selector, link)[0];
+            int type = m.getInt();
+            if (type == TICK) {
+                for (int n = m.getInt(); n > 0; n--) {
+                    worker.tick();
+                }
+                ByteBuffer done = Link.message(DONE, 8);
+                done.putLong(worker.simulation.tick);
+                link.send(done);
+            } else if (type == FRAME) {
+                int rows = worker.row1 - worker.row0;
+                ByteBuffer frame = Link.message(FRAME, rows * worker.width);
+                byte[] cells = new byte[rows * worker.width];
+                worker.grid.readRect(worker.row0 - worker.top, 0, rows, worker.width, cells);
+                link.send(frame.put(cells));
+            } else if (type == STOP) {
+                break;
+            } else {
+                throw new IOException("unknown message " + type + " from the coordinator");
+            }
+        }
+        for (Border b : new Border[]{worker.above, worker.below}) {
+            if (b != null) {
+                b.link.close();
+            }
+        }
+        link.close();
+    }
+}
@@ -0,0 +1,41 @@
+package com.company;
+
+// one brush command: a round brush dragged in a straight line from (x0, y0) to (x1, y1).
+// a click is a stroke that starts and ends in the same place
+//
+// a blast doesn't paint: it throws the cells within radius of (x0, y0) into the air (see Particles.burst),
+// each with chance density. material is unused
+final class Stroke {
+    final int x0;
+    final int y0;
+    final int x1;
+    final int y1;
+    final int radius;
+    // chance of each cell under the brush getting painted
+    final double density;
+    final Material material;
+    final boolean blast;
+
+    Stroke(int x0, int y0, int x1, int y1, int radius, double density, Material material) {
+        this(x0, y0, x1, y1, radius, density, material, false);
+    }
+
+    Stroke(int x0, int y0, int x1, int y1, int radius, double density, Material material, boolean blast) {
+        this.x0 = x0;
+        this.y0 = y0;
+        this.x1 = x1;
+        this.y1 = y1;
+        this.radius = radius;
+        this.density = density;
+        this.material = material;
+        this.blast = blast;
+    }
+
+    static Stroke dot(int x, int y, int radius, double density, Material material) {
+        return new Stroke(x, y, x, y, radius, density, material);
+    }
+
+    static Stroke blast(int x, int y, int radius, double density) {
+        return new Stroke(x, y, x, y, radius, density, Material.EMPTY, true);
+    }
+}
@@ -0,0 +1,45 @@
+package com.company;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// hands frames from one writer thread to one reader thread without either ever waiting on the other.
+// there are three slots: the writer fills "back", the reader looks at "front", and "middle" holds the
+// newest finished frame. publishing and picking up are both one atomic swap with the middle slot,
+// so the writer never stalls on a slow reader and the reader always gets the newest frame there is
+// (frames it was too slow for are just skipped)
+final class TripleBuffer<T> {
+    // set in middle when the frame in it is newer than what the reader has
+    private static final int FRESH = 4;
+
+    private final Object[] slots;
+    // only touched by the writer / only by the reader
+    private int back = 0;
+    private int front = 1;
+    private final AtomicInteger middle = new AtomicInteger(2);
+
+    TripleBuffer(T a, T b, T c) {
+        slots = new Object[]{a, b, c};
+    }
+
+    // writer: the slot to fill next, it's not visible to the reader until publish()
+    @SuppressWarnings("unchecked")
+    T back() {
+        return (T) slots[back];
+    }
+
+    // writer: makes back the newest frame and takes the middle slot to fill next
+    void publish() {
+        back = middle.getAndSet(back | FRESH) & 3;
+    }
+
+    // reader: the newest published frame, or null if nothing new came in since the last call.
+    // the returned frame belongs to the reader until the next call
+    @SuppressWarnings("unchecked")
+    T poll() {
+        if ((middle.get() & FRESH) == 0) {
+            return null;
+        }
+        front = middle.getAndSet(front) & 3;
+        return (T) slots[front];
+    }
+}
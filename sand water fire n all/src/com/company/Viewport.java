@@ -0,0 +1,262 @@
+package com.company;
+
+import java.util.Arrays;
+
+// draws a window onto a board that can be a lot bigger than the screen, zoomed in or out and panned anywhere.
+// the board's colors are kept as a stack of mip levels: level 0 is one pixel per cell, each level after that
+// half as wide and high as the one before, every pixel the average of the 4 under it. zoomed out, a screen
+// pixel is read from the level whose pixels are about its size, so a frame costs the same per screen pixel
+// whatever the zoom and however big the board is
+//
+// the levels are kept up to date a chunk at a time: update() recolors only the chunks that could have changed
+// since the frame before (see SimulationThread.Frame.changed) and redoes the pixels over them in every level.
+// render() then draws what of that is on screen, or all of it if the view moved, and like Renderer leaves the
+// rect it drew for the caller to upload
+final class Viewport {
+    // screen pixels per cell, at most
+    static final double MAX_ZOOM = 16;
+    // what's around the board
+    static final int BACKGROUND = 0xFF202020;
+
+    private static final int CHUNK = Grid.CHUNK;
+
+    final int width;
+    final int height;
+    final int[] pixels;
+    final int boardWidth;
+    final int boardHeight;
+
+    // bounding box of the pixels drawn by the last render(), inclusive; dirtyMaxR < 0 means none
+    int dirtyMinC;
+    int dirtyMinR;
+    int dirtyMaxC;
+    int dirtyMaxR;
+
+    private final int[] palette;
+    private final int chunksX;
+    private final int[][] levels;
+    private final int[] levelWidth;
+    private final int[] levelHeight;
+    // the tick the levels are up to date with, -1: nothing in them yet
+    private long seen = -1;
+    // cells changed by update() since the last render(), inclusive; changedMaxR < 0 means none
+    private int changedMinC;
+    private int changedMinR;
+    private int changedMaxC = -1;
+    private int changedMaxR = -1;
+
+    // the board position at the top left corner of the screen, and screen pixels per cell
+    private double x;
+    private double y;
+    private double zoom = 1;
+    private boolean moved = true;
+    // the level drawn from, and per screen column / row the column / row in it (-1: off the board),
+    // worked out again whenever the view moves
+    private int level;
+    private final int[] columns;
+    private final int[] rows;
+
+    Viewport(int width, int height, int boardWidth, int boardHeight) {
+        this.width = width;
+        this.height = height;
+        this.boardWidth = boardWidth;
+        this.boardHeight = boardHeight;
+        pixels = new int[width * height];
+        palette = Renderer.palette();
+        chunksX = (boardWidth + CHUNK - 1) / CHUNK;
+        int n = 1;
+        while (Math.max(boardWidth, boardHeight) >> n > 0) {
+            n++;
+        }
+        levels = new int[n][];
+        levelWidth = new int[n];
+        levelHeight = new int[n];
+        for (int k = 0; k < n; k++) {
+            levelWidth[k] = Math.max((boardWidth + (1 << k) - 1) >> k, 1);
+            levelHeight[k] = Math.max((boardHeight + (1 << k) - 1) >> k, 1);
+            levels[k] = new int[levelWidth[k] * levelHeight[k]];
+        }
+        columns = new int[width];
+        rows = new int[height];
+        clamp();
+    }
+
+    // -- the view
+
+    // moves the view by (dx, dy) screen pixels, the board goes along with the mouse
+    void pan(double dx, double dy) {
+        x -= dx / zoom;
+        y -= dy / zoom;
+        clamp();
+    }
+
+    // zooms by factor, keeping the cell under screen pixel (sx, sy) where it is
+    void zoom(double factor, double sx, double sy) {
+        double bx = x + sx / zoom;
+        double by = y + sy / zoom;
+        zoom = Math.max(minZoom(), Math.min(MAX_ZOOM, zoom * factor));
+        x = bx - sx / zoom;
+        y = by - sy / zoom;
+        clamp();
+    }
+
+    // back to one cell per pixel, top left corner
+    void reset() {
+        x = 0;
+        y = 0;
+        zoom = 1;
+        clamp();
+    }
+
+    // the cell under screen pixel (sx, sy), can be off the board
+    int boardX(double sx) {
+        return (int) Math.floor(x + sx / zoom);
+    }
+
+    int boardY(double sy) {
+        return (int) Math.floor(y + sy / zoom);
+    }
+
+    // zoomed out far enough to see the whole board, and no further
+    private double minZoom() {
+        return Math.min(1, Math.min((double) width / boardWidth, (double) height / boardHeight));
+    }
+
+    // keeps the board on screen: centered along an axis it doesn't fill, otherwise no empty space at the edges
+    private void clamp() {
+        double w = width / zoom;
+        double h = height / zoom;
+        x = w >= boardWidth ? (boardWidth - w) / 2 : Math.max(0, Math.min(boardWidth - w, x));
+        y = h >= boardHeight ? (boardHeight - h) / 2 : Math.max(0, Math.min(boardHeight - h, y));
+        moved = true;
+    }
+
+    // -- the levels
+
+    // brings the levels up to date with a frame: cells is the board at that tick, changed[chunk] the last
+    // tick the chunk could have changed in
+    void update(byte[] cells, long[] changed, long tick) {
+        for (int chunk = 0; chunk < changed.length; chunk++) {
+            if (changed[chunk] > seen) {
+                recolor(cells, chunk);
+            }
+        }
+        seen = tick;
+    }
+
+    private void recolor(byte[] cells, int chunk) {
+        int c0 = (chunk % chunksX) * CHUNK;
+        int r0 = (chunk / chunksX) * CHUNK;
+        int c1 = Math.min(c0 + CHUNK, boardWidth);
+        int r1 = Math.min(r0 + CHUNK, boardHeight);
+        int[] base = levels[0];
+        for (int r = r0; r < r1; r++) {
+            for (int i = r * boardWidth + c0; i < r * boardWidth + c1; i++) {
+                base[i] = palette[cells[i]];
+            }
+        }
+        for (int k = 1; k < levels.length; k++) {
+            downsample(k, c0 >> k, r0 >> k, (c1 - 1) >> k, (r1 - 1) >> k);
+        }
+        if (changedMaxR < 0) {
+            changedMinC = c0;
+            changedMinR = r0;
+            changedMaxC = c1 - 1;
+            changedMaxR = r1 - 1;
+        } else {
+            changedMinC = Math.min(changedMinC, c0);
+            changedMinR = Math.min(changedMinR, r0);
+            changedMaxC = Math.max(changedMaxC, c1 - 1);
+            changedMaxR = Math.max(changedMaxR, r1 - 1);
+        }
+    }
+
+    // pixels c0..c1, r0..r1 of level k from the level below. at an odd edge the last pixel below counts twice
+    private void downsample(int k, int c0, int r0, int c1, int r1) {
+        int[] src = levels[k - 1];
+        int[] dst = levels[k];
+        int sw = levelWidth[k - 1];
+        int sh = levelHeight[k - 1];
+        int dw = levelWidth[k];
+        for (int r = r0; r <= r1; r++) {
+            int top = 2 * r * sw;
+            int bottom = Math.min(2 * r + 1, sh - 1) * sw;
+            for (int c = c0; c <= c1; c++) {
+                int left = 2 * c;
+                int right = Math.min(2 * c + 1, sw - 1);
+                dst[r * dw + c] = average(src[top + left], src[top + right], src[bottom + left], src[bottom + right]);
+            }
+        }
+    }
+
+    // per channel, red and blue side by side in one int: 4 times 255 still fits in the 8 bits between them
+    private static int average(int a, int b, int c, int d) {
+        int rb = (a & 0xFF00FF) + (b & 0xFF00FF) + (c & 0xFF00FF) + (d & 0xFF00FF);
+        int g = (a & 0xFF00) + (b & 0xFF00) + (c & 0xFF00) + (d & 0xFF00);
+        return 0xFF000000 | ((rb >> 2) & 0xFF00FF) | ((g >> 2) & 0xFF00);
+    }
+
+    // -- drawing
+
+    // draws what changed on screen since the last call; returns true if anything was drawn
+    boolean render() {
+        if (moved) {
+            moved = false;
+            locate();
+            draw(0, 0, width - 1, height - 1);
+        } else if (changedMaxR >= 0) {
+            // the changed cells as screen pixels, one extra around them for the rounding
+            int sc0 = Math.max(0, (int) Math.floor((changedMinC - x) * zoom) - 1);
+            int sr0 = Math.max(0, (int) Math.floor((changedMinR - y) * zoom) - 1);
+            int sc1 = Math.min(width - 1, (int) Math.ceil((changedMaxC + 1 - x) * zoom));
+            int sr1 = Math.min(height - 1, (int) Math.ceil((changedMaxR + 1 - y) * zoom));
+            if (sc0 <= sc1 && sr0 <= sr1) {
+                draw(sc0, sr0, sc1, sr1);
+            } else {
+                dirtyMaxR = -1;
+            }
+        } else {
+            dirtyMaxR = -1;
+        }
+        changedMaxR = -1;
+        changedMaxC = -1;
+        return dirtyMaxR >= 0;
+    }
+
+    // picks the level and maps every screen column and row to it. a screen pixel reads the cell at its center
+    private void locate() {
+        level = 0;
+        while (level + 1 < levels.length && zoom * (1 << (level + 1)) <= 1) {
+            level++;
+        }
+        for (int sc = 0; sc < width; sc++) {
+            int bx = (int) Math.floor(x + (sc + 0.5) / zoom);
+            columns[sc] = bx < 0 || bx >= boardWidth ? -1 : bx >> level;
+        }
+        for (int sr = 0; sr < height; sr++) {
+            int by = (int) Math.floor(y + (sr + 0.5) / zoom);
+            rows[sr] = by < 0 || by >= boardHeight ? -1 : by >> level;
+        }
+    }
+
+    private void draw(int sc0, int sr0, int sc1, int sr1) {
+        int[] src = levels[level];
+        int lw = levelWidth[level];
+        for (int sr = sr0; sr <= sr1; sr++) {
+            int out = sr * width;
+            if (rows[sr] < 0) {
+                Arrays.fill(pixels, out + sc0, out + sc1 + 1, BACKGROUND);
+                continue;
+            }
+            int row = rows[sr] * lw;
+            for (int sc = sc0; sc <= sc1; sc++) {
+                int lc = columns[sc];
+                pixels[out + sc] = lc < 0 ? BACKGROUND : src[row + lc];
+            }
+        }
+        dirtyMinC = sc0;
+        dirtyMinR = sr0;
+        dirtyMaxC = sc1;
+        dirtyMaxR = sr1;
+    }
+}